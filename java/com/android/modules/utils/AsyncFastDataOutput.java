@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.modules.utils;
+
+import android.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Implementation of {@link FastDataOutput} which hands each full buffer to a
+ * background writer, so that encoding overlaps with the blocking writes to the
+ * underlying {@link OutputStream}.
+ * <p>
+ * Drained data is copied into one of a small number of spare buffers, which
+ * are written in order by a single task running on the given
+ * {@link Executor}. When all spare buffers are waiting to be written, draining
+ * blocks until one becomes free, which bounds memory usage.
+ */
+class AsyncFastDataOutput extends FastDataOutput {
+    private static final int SPARE_BUFFER_COUNT = 2;
+
+    private static class Chunk {
+        final byte[] data;
+        int length;
+
+        Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private final Executor mExecutor;
+    private OutputStream mOut;
+
+    /**
+     * Lock guarding all fields below, and which is notified whenever a chunk
+     * is returned or the writer becomes idle.
+     */
+    private final Object mLock = new Object();
+    private final ArrayDeque<Chunk> mFree = new ArrayDeque<>(SPARE_BUFFER_COUNT);
+    private final ArrayDeque<Chunk> mPending = new ArrayDeque<>(SPARE_BUFFER_COUNT);
+    private boolean mWriting;
+
+    /**
+     * First failure of a background write, or of scheduling one, which may
+     * also be unchecked.
+     */
+    private Throwable mError;
+
+    AsyncFastDataOutput(@NonNull OutputStream out, @NonNull Executor executor, int bufferSize) {
+        super(bufferSize);
+        mOut = Objects.requireNonNull(out);
+        mExecutor = Objects.requireNonNull(executor);
+        for (int i = 0; i < SPARE_BUFFER_COUNT; i++) {
+            mFree.add(new Chunk(newByteArray(bufferSize)));
+        }
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        mOut = null;
+    }
+
+    @Override
+    protected void setOutput(@NonNull OutputStream out) {
+        // Async instances are bound to a single stream
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void drain() throws IOException {
+        if (mBufferPos == 0) return;
+
+        final Chunk chunk;
+        synchronized (mLock) {
+            throwIfError();
+            while (mFree.isEmpty()) {
+                waitLocked();
+                throwIfError();
+            }
+            chunk = mFree.poll();
+        }
+
+        System.arraycopy(mBuffer, 0, chunk.data, 0, mBufferPos);
+        chunk.length = mBufferPos;
+        onWritten(mBuffer, 0, mBufferPos);
+        mBufferPos = 0;
+
+        synchronized (mLock) {
+            mPending.add(chunk);
+            if (!mWriting) {
+                mWriting = true;
+                try {
+                    mExecutor.execute(this::writePending);
+                } catch (RuntimeException | Error e) {
+                    // Nothing will ever write the pending data, so discard it
+                    // and make sure nobody waits for it
+                    mWriting = false;
+                    mError = e;
+                    mFree.addAll(mPending);
+                    mPending.clear();
+                    mLock.notifyAll();
+                    throwIfError();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write all pending chunks in order, running on {@link #mExecutor}.
+     */
+    private void writePending() {
+        while (true) {
+            final Chunk chunk;
+            final boolean failed;
+            synchronized (mLock) {
+                chunk = mPending.poll();
+                if (chunk == null) {
+                    mWriting = false;
+                    mLock.notifyAll();
+                    return;
+                }
+                failed = (mError != null);
+            }
+
+            // Once a write has failed, remaining data is discarded
+            Throwable error = null;
+            if (!failed) {
+                try {
+                    mOut.write(chunk.data, 0, chunk.length);
+                } catch (IOException | RuntimeException | Error e) {
+                    error = e;
+                }
+            }
+
+            synchronized (mLock) {
+                if (error != null && mError == null) {
+                    mError = error;
+                }
+                mFree.add(chunk);
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Block until all drained data has been written to {@link #mOut}.
+     */
+    private void awaitWritten() throws IOException {
+        synchronized (mLock) {
+            while (mWriting) {
+                waitLocked();
+            }
+            throwIfError();
+        }
+    }
+
+    private void waitLocked() throws InterruptedIOException {
+        try {
+            mLock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void throwIfError() throws IOException {
+        if (mError != null) {
+            throw new IOException("Background write failed", mError);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        awaitWritten();
+        mOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        awaitWritten();
+        mOut.close();
+        release();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // Large payloads are split across buffers so they're also written in
+        // the background, and in order with everything else
+        while (len > 0) {
+            if (mBufferPos == mBufferCap) drain();
+            final int count = Math.min(len, mBufferCap - mBufferPos);
+            System.arraycopy(b, off, mBuffer, mBufferPos, count);
+            mBufferPos += count;
+            off += count;
+            len -= count;
+        }
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.modules.utils;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * Persists a document whose root element contains a flat collection of
+ * children, each uniquely identified by its tag name and a key attribute, such
+ * that every change costs a write proportional to the size of that change
+ * instead of the entire document.
+ * <p>
+ * The document is stored as a complete base document written by
+ * {@link BinaryXmlSerializer}, along with a journal of changes made since the
+ * base was written. Once the journal grows beyond a threshold, it's compacted
+ * back into a new base document on a background {@link Executor}.
+ * <p>
+ * Journal files begin with a magic value of {@code ABXJ}, followed by a
+ * sequence of records. Each record is a single byte type, such as
+ * {@link #RECORD_UPSERT}, followed by an {@code int} length, an {@code int}
+ * CRC-32 of the payload, and then the payload itself, which is a complete
+ * binary XML document containing the single affected element. A trailing
+ * record which was only partially written is discarded.
+ */
+public final class BinaryXmlJournal implements Closeable {
+    public static final byte[] PROTOCOL_MAGIC_JOURNAL = new byte[] { 0x41, 0x42, 0x58, 0x4a };
+
+    static final int RECORD_UPSERT = 1;
+    static final int RECORD_REMOVE = 2;
+
+    private static final int RECORD_HEADER_SIZE = 9;
+
+    /**
+     * Callback which writes the contents of an element, such as additional
+     * attributes and children, after its tag and key attribute.
+     */
+    public interface ElementWriter {
+        void write(@NonNull TypedXmlSerializer out) throws IOException;
+    }
+
+    /**
+     * Callback which reads an element whose {@link XmlPullParser#START_TAG} is
+     * the current event of the given parser.
+     */
+    public interface ElementReader {
+        void read(@NonNull TypedXmlPullParser in) throws XmlPullParserException, IOException;
+    }
+
+    private final File mBaseFile;
+    private final File mJournalFile;
+    private final String mRootTag;
+    private final String mKeyAttribute;
+    private final long mCompactThreshold;
+    private final Executor mExecutor;
+
+    private final Object mLock = new Object();
+
+    /**
+     * Serializes {@link #compact()}, which only holds {@link #mLock} briefly.
+     * Always acquired before {@link #mLock}.
+     */
+    private final Object mCompactLock = new Object();
+
+    /**
+     * Current contents of the document, where each element is stored as a
+     * complete binary XML document, keyed by {@link #entryKey}.
+     */
+    private final LinkedHashMap<String, byte[]> mEntries = new LinkedHashMap<>();
+
+    private FileOutputStream mJournalOut;
+    private long mJournalLength;
+    private boolean mCompacting;
+
+    /**
+     * @param compactThreshold size of the journal, in bytes, beyond which it's
+     *            compacted into a new base document.
+     * @param executor used to compact the journal in the background.
+     */
+    public BinaryXmlJournal(@NonNull File baseFile, @NonNull File journalFile,
+            @NonNull String rootTag, @NonNull String keyAttribute, long compactThreshold,
+            @NonNull Executor executor) {
+        mBaseFile = Objects.requireNonNull(baseFile);
+        mJournalFile = Objects.requireNonNull(journalFile);
+        mRootTag = Objects.requireNonNull(rootTag);
+        mKeyAttribute = Objects.requireNonNull(keyAttribute);
+        mCompactThreshold = compactThreshold;
+        mExecutor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * Load the base document and replay the journal on top of it, preparing
+     * to record future changes. Must be called before any other method.
+     */
+    public void load() throws IOException, XmlPullParserException {
+        synchronized (mLock) {
+            if (mJournalOut != null) {
+                throw new IllegalStateException("Already loaded");
+            }
+            mEntries.clear();
+            final BinaryXmlPullParser in = new BinaryXmlPullParser();
+            try (InputStream is = new FileInputStream(mBaseFile)) {
+                readBase(in, is);
+            } catch (FileNotFoundException ignored) {
+                // Missing base is an empty document
+            }
+            mJournalLength = replayJournal(in);
+            mJournalOut = new FileOutputStream(mJournalFile, true);
+        }
+    }
+
+    /**
+     * Insert or replace the element with the given tag name and key.
+     *
+     * @param writer optional callback to write the contents of the element.
+     */
+    public void upsert(@NonNull String tag, @NonNull String key, @Nullable ElementWriter writer)
+            throws IOException {
+        final byte[] element = writeElement(tag, key, writer);
+        synchronized (mLock) {
+            appendRecord(RECORD_UPSERT, element);
+            mEntries.put(entryKey(tag, key), element);
+        }
+    }
+
+    /**
+     * Remove the element with the given tag name and key, if present.
+     */
+    public void remove(@NonNull String tag, @NonNull String key) throws IOException {
+        final byte[] element = writeElement(tag, key, null);
+        synchronized (mLock) {
+            if (mEntries.remove(entryKey(tag, key)) != null) {
+                appendRecord(RECORD_REMOVE, element);
+            }
+        }
+    }
+
+    /**
+     * Read every element of the current document, in the order they were
+     * first inserted. The given reader may leave each element partially
+     * consumed.
+     */
+    public void read(@NonNull ElementReader reader) throws IOException, XmlPullParserException {
+        final List<byte[]> elements;
+        synchronized (mLock) {
+            elements = new ArrayList<>(mEntries.values());
+        }
+        final BinaryXmlPullParser in = new BinaryXmlPullParser();
+        for (byte[] element : elements) {
+            in.setInput(new ByteArrayInputStream(element), null);
+            in.next();
+            reader.read(in);
+            finish(in);
+        }
+    }
+
+    /**
+     * Write the current document as a new base document and reset the
+     * journal. Typically invoked automatically in the background, but may be
+     * called directly, for example before shutdown, in which case it waits for
+     * any compaction already in progress before starting another.
+     */
+    public void compact() throws IOException {
+        synchronized (mCompactLock) {
+            final List<byte[]> elements;
+            final long journalLength;
+            synchronized (mLock) {
+                if (mJournalOut == null) {
+                    throw new IllegalStateException("Not loaded");
+                }
+                elements = new ArrayList<>(mEntries.values());
+                journalLength = mJournalLength;
+            }
+
+            // The base is written without holding our lock, so that changes can
+            // continue to be journaled in the meantime
+            writeBase(elements);
+
+            synchronized (mLock) {
+                if (mJournalOut == null) {
+                    // Closed while writing; the new base already holds
+                    // everything which was journaled
+                    throw new IllegalStateException("Not loaded");
+                }
+
+                // Carry over any records journaled while we were writing the base
+                final File temp = new File(mJournalFile.getPath() + ".new");
+                final long tail = mJournalLength - journalLength;
+                try (FileChannel src = FileChannel.open(mJournalFile.toPath());
+                        FileOutputStream out = new FileOutputStream(temp)) {
+                    out.write(PROTOCOL_MAGIC_JOURNAL);
+                    long copied = 0;
+                    while (copied < tail) {
+                        copied += src.transferTo(journalLength + copied, tail - copied,
+                                out.getChannel());
+                    }
+                    out.getFD().sync();
+                }
+                mJournalOut.close();
+                mJournalOut = null;
+                final boolean renamed = temp.renameTo(mJournalFile);
+
+                // Either way the journal now in place is complete, since records
+                // already included in the new base are safe to replay again
+                mJournalOut = new FileOutputStream(mJournalFile, true);
+                if (!renamed) {
+                    temp.delete();
+                    throw new IOException("Failed to replace " + mJournalFile);
+                }
+                mJournalLength = PROTOCOL_MAGIC_JOURNAL.length + tail;
+                syncDirectory(mJournalFile);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (mLock) {
+            if (mJournalOut != null) {
+                mJournalOut.close();
+                mJournalOut = null;
+            }
+        }
+    }
+
+    private static @NonNull String entryKey(@NonNull String tag, @NonNull String key) {
+        return tag + '\u0000' + key;
+    }
+
+    /**
+     * Durably append a record to the journal, scheduling compaction once the
+     * journal has grown large enough.
+     */
+    private void appendRecord(int type, @NonNull byte[] payload) throws IOException {
+        if (mJournalOut == null) {
+            throw new IllegalStateException("Not loaded");
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.put((byte) type);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        mJournalOut.write(record.array());
+        mJournalOut.getFD().sync();
+        mJournalLength += record.capacity();
+
+        if (mJournalLength > mCompactThreshold && !mCompacting) {
+            mCompacting = true;
+            try {
+                mExecutor.execute(() -> {
+                    try {
+                        compact();
+                    } catch (IOException | IllegalStateException e) {
+                        // Journal remains authoritative; we'll try again later
+                    } finally {
+                        synchronized (mLock) {
+                            mCompacting = false;
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                mCompacting = false;
+            }
+        }
+    }
+
+    /**
+     * Write a standalone document containing a single element with the given
+     * tag name and key.
+     */
+    private @NonNull byte[] writeElement(@NonNull String tag, @NonNull String key,
+            @Nullable ElementWriter writer) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, null);
+        out.startTag(null, tag);
+        out.attribute(null, mKeyAttribute, key);
+        if (writer != null) {
+            writer.write(out);
+        }
+        out.endTag(null, tag);
+        out.endDocument();
+        return os.toByteArray();
+    }
+
+    private void readBase(@NonNull BinaryXmlPullParser in, @NonNull InputStream is)
+            throws IOException, XmlPullParserException {
+        in.setInput(is, null);
+        if (in.next() != XmlPullParser.START_TAG || !mRootTag.equals(in.getName())) {
+            throw new XmlPullParserException("Expected root element " + mRootTag);
+        }
+        int type;
+        while ((type = in.next()) != XmlPullParser.END_DOCUMENT) {
+            if (type == XmlPullParser.START_TAG && in.getDepth() == 2) {
+                final String key = in.getAttributeValue(null, mKeyAttribute);
+                if (key == null) {
+                    throw new XmlPullParserException("Missing " + mKeyAttribute + " for "
+                            + in.getName());
+                }
+                mEntries.put(entryKey(in.getName(), key), copyElement(in));
+            }
+        }
+    }
+
+    /**
+     * Copy the element whose {@link XmlPullParser#START_TAG} is the current
+     * event of the given parser into a standalone document.
+     */
+    private static @NonNull byte[] copyElement(@NonNull BinaryXmlPullParser in)
+            throws IOException, XmlPullParserException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, null);
+        copySubTree(in, out);
+        out.endDocument();
+        return os.toByteArray();
+    }
+
+    /**
+     * Copy the element whose {@link XmlPullParser#START_TAG} is the current
+     * event of the given parser to the given serializer, preserving the data
+     * types of its attributes.
+     */
+    private static void copySubTree(@NonNull BinaryXmlPullParser in,
+            @NonNull TypedXmlSerializer out) throws IOException, XmlPullParserException {
+        final int depth = in.getDepth();
+        int type = XmlPullParser.START_TAG;
+        while (true) {
+            switch (type) {
+                case XmlPullParser.START_TAG:
+                    out.startTag(null, in.getName());
+                    for (int i = 0; i < in.getAttributeCount(); i++) {
+                        in.copyAttribute(i, out);
+                    }
+                    break;
+                case XmlPullParser.TEXT:
+                    out.text(in.getText());
+                    break;
+                case XmlPullParser.END_TAG:
+                    out.endTag(null, in.getName());
+                    if (in.getDepth() == depth) {
+                        return;
+                    }
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    throw new EOFException();
+            }
+            type = in.next();
+        }
+    }
+
+    /**
+     * Consume the remainder of the document being parsed, which returns the
+     * input of the given parser for recycling.
+     */
+    private static void finish(@NonNull BinaryXmlPullParser in)
+            throws IOException, XmlPullParserException {
+        while (in.next() != XmlPullParser.END_DOCUMENT) {
+            // Keep reading
+        }
+    }
+
+    /**
+     * Apply all complete records of the journal to our entries, truncating
+     * any partially written trailing record.
+     *
+     * @return length of the valid journal.
+     */
+    private long replayJournal(@NonNull BinaryXmlPullParser in)
+            throws IOException, XmlPullParserException {
+        if (!mJournalFile.exists()) {
+            try (FileOutputStream out = new FileOutputStream(mJournalFile)) {
+                out.write(PROTOCOL_MAGIC_JOURNAL);
+                out.getFD().sync();
+            }
+            syncDirectory(mJournalFile);
+            return PROTOCOL_MAGIC_JOURNAL.length;
+        }
+
+        try (FileChannel channel = FileChannel.open(mJournalFile.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long length = channel.size();
+            final byte[] magic = new byte[PROTOCOL_MAGIC_JOURNAL.length];
+            if (length < magic.length) {
+                // Crashed before the magic of a new journal was durable, so
+                // nothing was ever recorded in it
+                channel.truncate(0);
+                channel.write(ByteBuffer.wrap(PROTOCOL_MAGIC_JOURNAL), 0);
+                channel.force(false);
+                return PROTOCOL_MAGIC_JOURNAL.length;
+            }
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.get(magic);
+            if (!Arrays.equals(magic, PROTOCOL_MAGIC_JOURNAL)) {
+                throw new IOException("Unexpected journal magic " + Arrays.toString(magic));
+            }
+
+            final CRC32 crc = new CRC32();
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                final int start = buffer.position();
+                final int type = buffer.get();
+                final int len = buffer.getInt();
+                final int expected = buffer.getInt();
+                if (len < 0 || len > buffer.remaining()) {
+                    buffer.position(start);
+                    break;
+                }
+                final byte[] payload = new byte[len];
+                buffer.get(payload);
+                crc.reset();
+                crc.update(payload, 0, len);
+                if ((int) crc.getValue() != expected) {
+                    buffer.position(start);
+                    break;
+                }
+
+                in.setInput(new ByteArrayInputStream(payload), null);
+                in.next();
+                final String key = entryKey(in.getName(),
+                        in.getAttributeValue(null, mKeyAttribute));
+                finish(in);
+                switch (type) {
+                    case RECORD_UPSERT:
+                        mEntries.put(key, payload);
+                        break;
+                    case RECORD_REMOVE:
+                        mEntries.remove(key);
+                        break;
+                    default:
+                        throw new IOException("Unexpected record type " + type);
+                }
+            }
+
+            // Discard any torn record left behind by an interrupted append
+            final int valid = buffer.position();
+            if (valid < length) {
+                channel.truncate(valid);
+                channel.force(false);
+            }
+            return valid;
+        }
+    }
+
+    private void writeBase(@NonNull List<byte[]> elements) throws IOException {
+        final File temp = new File(mBaseFile.getPath() + ".new");
+        try (FileOutputStream os = new FileOutputStream(temp)) {
+            final BinaryXmlSerializer out = new BinaryXmlSerializer();
+            out.setOutput(os, null);
+            out.startDocument(null, true);
+            out.startTag(null, mRootTag);
+            final BinaryXmlPullParser in = new BinaryXmlPullParser();
+            for (byte[] element : elements) {
+                in.setInput(new ByteArrayInputStream(element), null);
+                in.next();
+                copySubTree(in, out);
+                finish(in);
+            }
+            out.endTag(null, mRootTag);
+            out.endDocument();
+            os.getFD().sync();
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+        if (!temp.renameTo(mBaseFile)) {
+            throw new IOException("Failed to replace " + mBaseFile);
+        }
+        syncDirectory(mBaseFile);
+    }
+
+    /**
+     * Flush the directory containing the given file, so that the file we just
+     * created or renamed into place survives a crash. Not every platform
+     * supports opening directories, so this is best effort.
+     */
+    private static void syncDirectory(@NonNull File file) {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        if (dir == null) return;
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // The replacement is still atomic, just not yet durable
+        }
+    }
+}
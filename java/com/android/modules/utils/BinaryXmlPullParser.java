@@ -17,7 +17,14 @@
 package com.android.modules.utils;
 
 import static com.android.modules.utils.BinaryXmlSerializer.ATTRIBUTE;
+import static com.android.modules.utils.BinaryXmlSerializer.BLOCK_DEFLATE;
+import static com.android.modules.utils.BinaryXmlSerializer.BLOCK_SIZE;
+import static com.android.modules.utils.BinaryXmlSerializer.BLOCK_STORED;
+import static com.android.modules.utils.BinaryXmlSerializer.FLAG_VARINT;
+import static com.android.modules.utils.BinaryXmlSerializer.PROTOCOL_MAGIC_COMPRESSED;
+import static com.android.modules.utils.BinaryXmlSerializer.PROTOCOL_MAGIC_INDEX;
 import static com.android.modules.utils.BinaryXmlSerializer.PROTOCOL_MAGIC_VERSION_0;
+import static com.android.modules.utils.BinaryXmlSerializer.PROTOCOL_MAGIC_VERSION_1;
 import static com.android.modules.utils.BinaryXmlSerializer.TYPE_BOOLEAN_FALSE;
 import static com.android.modules.utils.BinaryXmlSerializer.TYPE_BOOLEAN_TRUE;
 import static com.android.modules.utils.BinaryXmlSerializer.TYPE_BYTES_BASE64;
@@ -44,9 +51,22 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.io.UTFDataFormatException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * Parser that reads XML documents using a custom binary wire protocol which
@@ -64,14 +84,51 @@ import java.util.Objects;
  * This parser has some specific limitations:
  * <ul>
  * <li>Only the UTF-8 encoding is supported.
- * <li>Variable length values, such as {@code byte[]} or {@link String}, are
- * limited to 65,535 bytes in length. Note that {@link String} values are stored
- * as UTF-8 on the wire.
+ * <li>Tag names, attribute names and attribute values, such as
+ * {@code byte[]} or {@link String}, are limited to 65,535 bytes in length, as
+ * are comments and processing instructions. Text and CDATA sections of any
+ * length are split across multiple events on the wire. Note that
+ * {@link String} values are stored as UTF-8 on the wire.
  * <li>Namespaces, prefixes, properties, and options are unsupported.
  * </ul>
  */
 public class BinaryXmlPullParser implements TypedXmlPullParser {
+    /**
+     * Feature which defers decoding {@code String} attribute values until
+     * they're requested through a {@code getAttribute} method. Raw values are
+     * retained in a reusable buffer owned by the parser, so callers reading
+     * only a few attributes of wide elements avoid decoding and allocating the
+     * rest. Raw {@code byte[]} values are always retained this way.
+     * <p>
+     * Malformed values are then only detected when they're requested, and are
+     * reported as {@link XmlPullParserException} by the typed
+     * {@code getAttribute} methods, just like malformed values are reported by
+     * {@link #next()} without this feature. Since
+     * {@link #getAttributeValue(int)} and
+     * {@link #getAttributeValue(String, String)} can't throw checked
+     * exceptions, they report malformed values as
+     * {@link UncheckedIOException}.
+     */
+    public static final String FEATURE_LAZY_ATTRIBUTES =
+            "http://android.com/abx/features.html#lazy-attributes";
+
     private FastDataInput mIn;
+    private int mProtocolVersion;
+
+    /**
+     * Whether {@link #TYPE_INT} and {@link #TYPE_LONG} values of the current
+     * document are variable-length, as signaled by
+     * {@link BinaryXmlSerializer#FLAG_VARINT}.
+     */
+    private boolean mVarint;
+
+    /**
+     * When parsing a {@link #PROTOCOL_MAGIC_COMPRESSED} document, the stream
+     * which decompresses the raw input feeding {@link #mIn}. Retained across
+     * documents along with its buffers, and only attached to a raw input
+     * while parsing a compressed document.
+     */
+    private BlockInflaterInputStream mInflater;
 
     private int mCurrentToken = START_DOCUMENT;
     private int mCurrentDepth = 0;
@@ -86,52 +143,241 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
     private int mAttributeCount = 0;
     private Attribute[] mAttributes;
 
+    private static final int MAX_RETAINED_ATTRIBUTES = 64;
+
+    /**
+     * Open-addressing hash table from attribute name to {@code index + 1} in
+     * {@link #mAttributes}, built on demand by {@link #getAttributeIndex} for
+     * tags with more than {@link #ATTRIBUTE_TABLE_THRESHOLD} attributes, where
+     * a linear scan for every lookup would become quadratic.
+     */
+    private static final int ATTRIBUTE_TABLE_THRESHOLD = 8;
+
+    private int[] mAttributeTable;
+    private boolean mAttributeTableValid;
+
+    /**
+     * Storage for the raw values of attributes of the current tag which
+     * haven't been decoded yet, which holds all {@code byte[]} values, along
+     * with {@code String} values when {@link #FEATURE_LAZY_ATTRIBUTES} is
+     * enabled.
+     */
+    private boolean mLazyAttributes;
+    private byte[] mAttributeData;
+    private int mAttributeDataSize;
+    private char[] mAttributeChars;
+
+    /**
+     * When set, the raw values of {@link #TEXT} tokens are retained in
+     * {@link #mTextData} instead of being decoded, for callers such as
+     * {@link BinaryXmlTranscoder} which can use them as-is.
+     */
+    private boolean mRawText;
+    private byte[] mTextData;
+    private int mTextDataLength;
+
+    /**
+     * Number of children of the root element started so far, which locates
+     * the current element within the document index.
+     */
+    private int mChildCount = 0;
+
+    /**
+     * Index of the children of the root element, loaded on demand from the
+     * end of documents written with {@link BinaryXmlSerializer#FEATURE_INDEX}
+     * when our input supports seeking. Offsets and interned string counts are
+     * stored in pairs for the start and end of each child.
+     */
+    private boolean mIndexLoaded;
+    private int mIndexCount;
+    private int[] mIndexOffsets;
+    private int[] mIndexStringRefs;
+    private String[] mIndexStrings;
+
+    /**
+     * Scratch storage for combining consecutive text regions and for
+     * {@link #getTextCharacters(int[])}, allocated lazily and only retained
+     * while reasonably small.
+     */
+    private static final int MAX_RETAINED_TEXT_CAPACITY = 8_192;
+
+    private StringBuilder mTextBuilder;
+    private char[] mTextChars;
+
+    /**
+     * Whether the current document ends with a checksum written by
+     * {@link BinaryXmlSerializer#FEATURE_CHECKSUM}, which is verified when
+     * reaching {@link #END_DOCUMENT}.
+     */
+    private boolean mChecksum;
+    private CRC32 mCrc;
+
+    /**
+     * Scratch storage for the magic at the start of each document.
+     */
+    private final byte[] mMagic = new byte[4];
+
     @Override
     public void setInput(InputStream is, String encoding) throws XmlPullParserException {
         if (encoding != null && !StandardCharsets.UTF_8.name().equalsIgnoreCase(encoding)) {
             throw new UnsupportedOperationException();
         }
 
-        if (mIn != null) {
-            mIn.release();
-            mIn = null;
-        }
+        releaseInput();
 
         mIn = obtainFastDataInput(is);
+        readHeader();
+    }
 
-        mCurrentToken = START_DOCUMENT;
-        mCurrentDepth = 0;
-        mCurrentName = null;
-        mCurrentText = null;
+    /**
+     * Set the input source for the parser to the given {@link FileChannel},
+     * which will be parsed directly from a read-only memory mapping of its
+     * remaining contents.
+     * <p>
+     * This avoids copying data through intermediate buffers, and is the
+     * preferred way to parse large documents stored on disk.
+     */
+    public void setInput(@NonNull FileChannel channel) throws XmlPullParserException {
+        releaseInput();
 
-        mAttributeCount = 0;
-        mAttributes = new Attribute[8];
-        for (int i = 0; i < mAttributes.length; i++) {
-            mAttributes[i] = new Attribute();
+        try {
+            mIn = obtainFastDataInput(channel);
+        } catch (IOException e) {
+            throw new XmlPullParserException(e.toString());
+        }
+        readHeader();
+    }
+
+    /**
+     * Release any input we're currently holding so it can be recycled.
+     */
+    private void releaseInput() {
+        if (mIn != null) {
+            mIn.release();
+            mIn = null;
         }
+        if (mInflater != null) {
+            mInflater.release();
+        }
+    }
+
+    /**
+     * Reset our parsing state and consume the document header from the
+     * freshly configured {@link #mIn}.
+     */
+    private void readHeader() throws XmlPullParserException {
+        resetState();
 
         try {
-            final byte[] magic = new byte[4];
+            // We don't know if the document has a checksum until we reach the
+            // START_DOCUMENT token, so tentatively accumulate the header
+            final byte[] magic = mMagic;
+            mIn.setChecksum(obtainChecksum());
             mIn.readFully(magic);
-            if (!Arrays.equals(magic, PROTOCOL_MAGIC_VERSION_0)) {
+            if (Arrays.equals(magic, PROTOCOL_MAGIC_COMPRESSED)) {
+                // The remainder of the input is a complete document wrapped in
+                // compressed blocks, so continue parsing from inside them
+                mIn.setChecksum(null);
+                if (mInflater == null) {
+                    mInflater = new BlockInflaterInputStream();
+                }
+                mInflater.setInput(mIn);
+                mIn = obtainFastDataInput(mInflater);
+                mIn.setChecksum(obtainChecksum());
+                mIn.readFully(magic);
+            }
+            if (Arrays.equals(magic, PROTOCOL_MAGIC_VERSION_0)) {
+                mProtocolVersion = 0;
+            } else if (Arrays.equals(magic, PROTOCOL_MAGIC_VERSION_1)) {
+                mProtocolVersion = 1;
+                final int flags = mIn.readVarInt();
+                if ((flags & ~FLAG_VARINT) != 0) {
+                    throw new IOException("Unsupported header flags " + flags);
+                }
+                mVarint = (flags & FLAG_VARINT) != 0;
+                mIn.readVarInternedUTFTable();
+            } else {
                 throw new IOException("Unexpected magic " + bytesToHexString(magic));
             }
 
             // We're willing to immediately consume a START_DOCUMENT if present,
             // but we're okay if it's missing
             if (peekNextExternalToken() == START_DOCUMENT) {
+                mChecksum = (mIn.peekByte() & 0xf0) == TYPE_BOOLEAN_TRUE;
                 consumeToken();
             }
+            if (!mChecksum) {
+                mIn.setChecksum(null);
+            }
         } catch (IOException e) {
             throw new XmlPullParserException(e.toString());
         }
     }
 
+    private @NonNull CRC32 obtainChecksum() {
+        if (mCrc == null) {
+            mCrc = new CRC32();
+        } else {
+            mCrc.reset();
+        }
+        return mCrc;
+    }
+
+    /**
+     * Release any input and reset all parsing state, leaving this parser as
+     * if it had reached {@link #END_DOCUMENT}.
+     * <p>
+     * Internal storage, such as the pool of attributes, is retained so that
+     * a parser can be cheaply reused for many small documents; calling this
+     * is only needed to stop holding onto the current input early, since
+     * {@link #setInput(InputStream, String)} implicitly resets as well.
+     */
+    public void reset() {
+        releaseInput();
+        resetState();
+        mCurrentToken = END_DOCUMENT;
+    }
+
+    /**
+     * Reset all parsing state in preparation for a new input.
+     */
+    private void resetState() {
+        mCurrentToken = START_DOCUMENT;
+        mCurrentDepth = 0;
+        mCurrentName = null;
+        mCurrentText = null;
+
+        // Retain our pool of attributes across documents, unless an unusually
+        // wide element caused it to grow
+        if (mAttributeCount > 0) resetAttributes();
+        if (mAttributes == null || mAttributes.length > MAX_RETAINED_ATTRIBUTES) {
+            mAttributes = new Attribute[8];
+            for (int i = 0; i < mAttributes.length; i++) {
+                mAttributes[i] = new Attribute();
+            }
+        }
+
+        mVarint = false;
+        mChildCount = 0;
+        mIndexLoaded = false;
+        mIndexCount = 0;
+        mIndexOffsets = null;
+        mIndexStringRefs = null;
+        mIndexStrings = null;
+        mChecksum = false;
+    }
+
     @NonNull
     protected FastDataInput obtainFastDataInput(@NonNull InputStream is) {
         return FastDataInput.obtain(is);
     }
 
+    @NonNull
+    protected FastDataInput obtainFastDataInput(@NonNull FileChannel channel)
+            throws IOException {
+        return FastDataInput.obtain(channel);
+    }
+
     @Override
     public void setInput(Reader in) throws XmlPullParserException {
         throw new UnsupportedOperationException();
@@ -147,6 +393,8 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
                 case END_DOCUMENT:
                     return token;
                 case TEXT:
+                case CDSECT:
+                    // Per interface docs, CDATA sections are reported as text
                     consumeAdditionalText();
                     // Per interface docs, empty text regions are skipped
                     if (mCurrentText == null || mCurrentText.length() == 0) {
@@ -162,6 +410,9 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
     public int nextToken() throws XmlPullParserException, IOException {
         if (mCurrentToken == XmlPullParser.END_TAG) {
             mCurrentDepth--;
+        } else if (mCurrentToken == XmlPullParser.END_DOCUMENT) {
+            // Our input has already been released below
+            return END_DOCUMENT;
         }
 
         int token;
@@ -169,6 +420,9 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
             token = peekNextExternalToken();
             consumeToken();
         } catch (EOFException e) {
+            if (mChecksum) {
+                throw new XmlPullParserException("Truncated document");
+            }
             token = END_DOCUMENT;
         }
         switch (token) {
@@ -177,12 +431,672 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
                 // that we parse all pending INTERNAL_ATTRIBUTE tokens
                 peekNextExternalToken();
                 mCurrentDepth++;
+                if (mCurrentDepth == 2) {
+                    mChildCount++;
+                }
+                break;
+            case XmlPullParser.END_DOCUMENT:
+                if (mChecksum) {
+                    verifyChecksum();
+                }
+                // Nothing more to read, so return our input for recycling
+                releaseInput();
                 break;
         }
         mCurrentToken = token;
         return token;
     }
 
+    /**
+     * Compare the checksum accumulated through the {@link #END_DOCUMENT} token
+     * we just consumed against the value written after it.
+     */
+    private void verifyChecksum() throws XmlPullParserException, IOException {
+        final int expected = (int) mIn.getChecksum();
+        final int actual;
+        try {
+            actual = mIn.readInt();
+        } catch (EOFException e) {
+            throw new XmlPullParserException("Truncated document");
+        }
+        if (actual != expected) {
+            throw new XmlPullParserException("Checksum mismatch: expected "
+                    + Integer.toHexString(expected) + " but found "
+                    + Integer.toHexString(actual));
+        }
+    }
+
+    /**
+     * Read up to {@link EventBatch#getCapacity()} events into the given batch,
+     * following the same semantics as {@link #next()}, so that high-volume
+     * callers can process events in a tight loop.
+     * <p>
+     * Events are decoded directly from the underlying stream into the batch,
+     * with a single dispatch per token. Values deferred by
+     * {@link #FEATURE_LAZY_ATTRIBUTES} are copied raw into storage owned by
+     * the batch, and are only decoded when requested from it. After returning,
+     * the current event of this parser is the last event in the batch, but its
+     * attributes are only available through the batch.
+     *
+     * @return number of events read, which is less than the capacity only
+     *         when {@link #END_DOCUMENT} was reached, and zero once it has
+     *         already been returned.
+     */
+    public int nextEvents(@NonNull EventBatch batch) throws XmlPullParserException, IOException {
+        batch.clear();
+        if (mCurrentToken == END_DOCUMENT) {
+            return 0;
+        }
+        if (mAttributeCount > 0) resetAttributes();
+
+        final int capacity = batch.getCapacity();
+        int count = 0;
+        while (count < capacity) {
+            if (mCurrentToken == END_TAG) {
+                mCurrentDepth--;
+            }
+
+            int token;
+            String name = null;
+            String text = null;
+            try {
+                final int event = mIn.readByte();
+                token = event & 0x0f;
+                switch (token) {
+                    case XmlPullParser.START_TAG:
+                    case XmlPullParser.END_TAG:
+                        name = readInternedUTF();
+                        break;
+                    case XmlPullParser.TEXT:
+                    case XmlPullParser.CDSECT:
+                        text = mIn.readUTF();
+                        break;
+                    case XmlPullParser.END_DOCUMENT:
+                        break;
+                    case ATTRIBUTE:
+                        // Stray attribute outside of a tag; only read what's
+                        // needed to keep our interned string references valid
+                        readInternedUTF();
+                        skipAttributeValue(event & 0xf0);
+                        continue;
+                    case XmlPullParser.START_DOCUMENT:
+                    case XmlPullParser.PROCESSING_INSTRUCTION:
+                    case XmlPullParser.COMMENT:
+                    case XmlPullParser.DOCDECL:
+                    case XmlPullParser.IGNORABLE_WHITESPACE:
+                    case XmlPullParser.ENTITY_REF:
+                        // Skipped by next(), unless they follow text
+                        if (token != XmlPullParser.START_DOCUMENT) {
+                            skipFully(mIn.readUnsignedShort());
+                        }
+                        mCurrentToken = token;
+                        continue;
+                    default:
+                        throw new IOException("Unknown token " + token
+                                + " with type " + (event & 0xf0));
+                }
+            } catch (EOFException e) {
+                if (mChecksum) {
+                    throw new XmlPullParserException("Truncated document");
+                }
+                token = END_DOCUMENT;
+            }
+
+            switch (token) {
+                case XmlPullParser.START_TAG:
+                    mCurrentDepth++;
+                    if (mCurrentDepth == 2) {
+                        mChildCount++;
+                    }
+                    break;
+                case XmlPullParser.TEXT:
+                case XmlPullParser.CDSECT:
+                    // Per interface docs, CDATA sections are reported as text,
+                    // and empty text regions are skipped
+                    token = TEXT;
+                    text = readAdditionalText(text);
+                    if (text.isEmpty()) {
+                        mCurrentToken = TEXT;
+                        continue;
+                    }
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    if (mChecksum) {
+                        verifyChecksum();
+                    }
+                    // Nothing more to read, so return our input for recycling
+                    releaseInput();
+                    break;
+            }
+
+            final int index = count++;
+            batch.mTokens[index] = token;
+            batch.mNames[index] = name;
+            batch.mTexts[index] = text;
+            batch.mDepths[index] = mCurrentDepth;
+            mCurrentToken = token;
+            mCurrentName = name;
+            mCurrentText = text;
+            if (token == START_TAG) {
+                while (peekNextToken() == ATTRIBUTE) {
+                    readAttribute(batch.obtainAttribute(), mIn.readByte() & 0xf0, batch);
+                }
+            }
+            batch.mAttributeEnds[index] = batch.mAttributeCount;
+            if (token == END_DOCUMENT) {
+                break;
+            }
+        }
+        batch.mCount = count;
+        return count;
+    }
+
+    /**
+     * Variant of {@link #consumeAdditionalText()} for {@link #nextEvents},
+     * which appends any subsequent "text" events to the given text.
+     */
+    private @NonNull String readAdditionalText(@NonNull String firstText)
+            throws IOException, XmlPullParserException {
+        StringBuilder combinedText = null;
+        while (true) {
+            final int token = peekNextToken();
+            switch (token) {
+                case COMMENT:
+                case PROCESSING_INSTRUCTION:
+                    // Quietly consumed
+                    mIn.readByte();
+                    skipFully(mIn.readUnsignedShort());
+                    break;
+                case TEXT:
+                case CDSECT:
+                case ENTITY_REF:
+                    // Additional text regions collected
+                    mIn.readByte();
+                    final String text = mIn.readUTF();
+                    if (combinedText == null) {
+                        combinedText = obtainTextBuilder();
+                        combinedText.append(firstText);
+                    }
+                    combinedText.append((token == ENTITY_REF) ? resolveEntity(text) : text);
+                    break;
+                default:
+                    // Next token is something non-text, so wrap things up
+                    if (combinedText == null) {
+                        return firstText;
+                    }
+                    final String res = combinedText.toString();
+                    releaseTextBuilder(combinedText);
+                    return res;
+            }
+        }
+    }
+
+    /**
+     * Callback which parses a single child of the root element of a document.
+     *
+     * @see #parseChildren(FileChannel, ForkJoinPool, ChildParser)
+     */
+    public interface ChildParser<T> {
+        /**
+         * Parse the child whose {@link #START_TAG} is the current event of the
+         * given parser, typically consuming through its matching
+         * {@link #END_TAG}. Children are always reported at depth 2, but since
+         * they may be parsed in isolation, implementations must not depend on
+         * any state shared with other children.
+         */
+        @Nullable T parseChild(@NonNull BinaryXmlPullParser parser)
+                throws XmlPullParserException, IOException;
+    }
+
+    /**
+     * Parse each child of the root element of the document contained in the
+     * given {@link FileChannel}, returning the results in document order.
+     * <p>
+     * When the document was written with
+     * {@link BinaryXmlSerializer#FEATURE_INDEX}, the children are split into
+     * ranges which are parsed concurrently on the given pool, each with its own
+     * parser sharing a single memory mapping and starting from a snapshot of
+     * the interned strings defined before that range. Otherwise all children
+     * are parsed sequentially on the calling thread.
+     * <p>
+     * When the document was written with
+     * {@link BinaryXmlSerializer#FEATURE_CHECKSUM}, no results are returned
+     * unless the checksum covering the entire document matches.
+     */
+    public static <T> @NonNull List<T> parseChildren(@NonNull FileChannel channel,
+            @NonNull ForkJoinPool pool, @NonNull ChildParser<T> childParser)
+            throws XmlPullParserException, IOException {
+        final BinaryXmlPullParser parser = new BinaryXmlPullParser();
+        parser.setInput(channel);
+        try {
+            if (parser.next() != START_TAG) {
+                throw new XmlPullParserException("Missing root element");
+            }
+            final int position = (parser.mIn instanceof MappedFastDataInput)
+                    ? ((MappedFastDataInput) parser.mIn).position() : -1;
+            if (!parser.ensureIndex() || parser.mIndexCount == 0
+                    || parser.mIndexOffsets[0] < position) {
+                final List<T> res = parseChildrenSequentially(parser, childParser);
+                verifyRemainder(parser);
+                return res;
+            }
+
+            final int count = parser.mIndexCount;
+            final int tasks = Math.min(count, pool.getParallelism() * 4);
+            final int perTask = (count + tasks - 1) / tasks;
+            final List<ChildrenTask<T>> pending = new ArrayList<>();
+            for (int first = 0; first < count; first += perTask) {
+                final int last = Math.min(first + perTask, count) - 1;
+                final BinaryXmlPullParser chunk = new BinaryXmlPullParser();
+                chunk.resetState();
+                chunk.mIn = ((MappedFastDataInput) parser.mIn).slice(
+                        parser.mIndexOffsets[first << 1],
+                        parser.mIndexOffsets[(last << 1) + 1]);
+                chunk.mIn.setStringRefs(parser.mIndexStrings,
+                        parser.mIndexStringRefs[first << 1]);
+                chunk.mProtocolVersion = parser.mProtocolVersion;
+                chunk.mVarint = parser.mVarint;
+                // Slices keep the offsets of the original mapping, so the same
+                // index remains valid, and children are reported at the same
+                // depth as when parsing sequentially
+                chunk.mCurrentDepth = 1;
+                chunk.mChildCount = first;
+                chunk.mIndexLoaded = true;
+                chunk.mIndexCount = count;
+                chunk.mIndexOffsets = parser.mIndexOffsets;
+                chunk.mIndexStringRefs = parser.mIndexStringRefs;
+                chunk.mIndexStrings = parser.mIndexStrings;
+                pending.add(new ChildrenTask<>(chunk, childParser));
+                pool.execute(pending.get(pending.size() - 1));
+            }
+
+            final List<T> res = new ArrayList<>(count);
+            int completed = 0;
+            try {
+                // Ranges don't see the checksum trailer, so verify it over the
+                // entire document while they're being parsed
+                verifyRemainder(parser);
+                for (ChildrenTask<T> task : pending) {
+                    final List<T> children = task.get();
+                    if (task.mFailure instanceof XmlPullParserException) {
+                        throw (XmlPullParserException) task.mFailure;
+                    } else if (task.mFailure != null) {
+                        throw (IOException) task.mFailure;
+                    }
+                    res.addAll(children);
+                    completed++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof XmlPullParserException) {
+                    throw (XmlPullParserException) cause;
+                } else if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else {
+                    throw new IOException(cause);
+                }
+            } finally {
+                // Don't leave the remaining ranges running after a failure
+                for (int i = completed; i < pending.size(); i++) {
+                    pending.get(i).cancel(true);
+                }
+            }
+            return res;
+        } finally {
+            parser.releaseInput();
+        }
+    }
+
+    /**
+     * Task which parses a range of children sliced out of a larger document.
+     * Checked exceptions are captured instead of being thrown, since
+     * {@link ForkJoinTask} would otherwise wrap them.
+     */
+    private static final class ChildrenTask<T> extends RecursiveTask<List<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final BinaryXmlPullParser mParser;
+        private final ChildParser<T> mChildParser;
+        private Exception mFailure;
+
+        ChildrenTask(@NonNull BinaryXmlPullParser parser, @NonNull ChildParser<T> childParser) {
+            mParser = parser;
+            mChildParser = childParser;
+        }
+
+        @Override
+        protected List<T> compute() {
+            try {
+                return parseChildrenSequentially(mParser, mChildParser);
+            } catch (XmlPullParserException | IOException e) {
+                mFailure = e;
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Consume the remainder of a document with a checksum through
+     * {@link #END_DOCUMENT}, which verifies that checksum. Children of the
+     * root element are skipped using the index when available, since the
+     * checksum is accumulated directly over the mapping.
+     */
+    private static void verifyRemainder(@NonNull BinaryXmlPullParser parser)
+            throws XmlPullParserException, IOException {
+        if (!parser.mChecksum || parser.mCurrentToken == END_DOCUMENT) return;
+        int type;
+        while ((type = parser.next()) != END_DOCUMENT) {
+            if (type == START_TAG) {
+                parser.skipSubTree();
+            }
+        }
+    }
+
+    /**
+     * Parse all children of the current element, which is either the root
+     * element or the implicit root of a range of children sliced out of a
+     * larger document.
+     */
+    private static <T> @NonNull List<T> parseChildrenSequentially(
+            @NonNull BinaryXmlPullParser parser, @NonNull ChildParser<T> childParser)
+            throws XmlPullParserException, IOException {
+        final List<T> res = new ArrayList<>();
+        final int depth = parser.mCurrentDepth + 1;
+        while (true) {
+            switch (parser.next()) {
+                case START_TAG:
+                    if (parser.mCurrentDepth == depth) {
+                        res.add(childParser.parseChild(parser));
+                    }
+                    break;
+                case END_TAG:
+                    if (parser.mCurrentDepth < depth) {
+                        return res;
+                    }
+                    break;
+                case END_DOCUMENT:
+                    return res;
+            }
+        }
+    }
+
+    /**
+     * Skip the remainder of the element whose {@link #START_TAG} is the current
+     * event, leaving its matching {@link #END_TAG} as the current event.
+     * <p>
+     * When parsing a {@link FileChannel} containing a document written with
+     * {@link BinaryXmlSerializer#FEATURE_INDEX}, children of the root element
+     * are skipped by seeking directly past them. Otherwise the contents of the
+     * element are scanned without decoding any values.
+     */
+    public void skipSubTree() throws XmlPullParserException, IOException {
+        if (mCurrentToken != START_TAG) {
+            throw new XmlPullParserException(getPositionDescription());
+        }
+        if (mCurrentDepth != 2 || !seekToChildEnd(mChildCount - 1)) {
+            scanToEndTag();
+        }
+        mCurrentToken = END_TAG;
+        mCurrentText = null;
+        if (mAttributeCount > 0) resetAttributes();
+    }
+
+    /**
+     * Consume events within the current element until reaching a direct child
+     * with the given tag name, and optionally the given attribute value, which
+     * is then left as the current event. Non-matching children are skipped
+     * using {@link #skipSubTree()}.
+     * <p>
+     * When the current event is a {@link #START_TAG}, the search covers the
+     * children of that element; to continue searching after a match, first
+     * call {@link #skipSubTree()}.
+     *
+     * @return {@code true} when a matching child was found, otherwise
+     *         {@code false} with the {@link #END_TAG} of the current element
+     *         left as the current event.
+     */
+    public boolean seekToElement(@NonNull String name, @Nullable String attributeName,
+            @Nullable String attributeValue) throws XmlPullParserException, IOException {
+        while (true) {
+            switch (next()) {
+                case START_TAG:
+                    if (name.equals(mCurrentName) && (attributeName == null
+                            || Objects.equals(attributeValue,
+                                    getAttributeValue(null, attributeName)))) {
+                        return true;
+                    }
+                    skipSubTree();
+                    break;
+                case END_TAG:
+                case END_DOCUMENT:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Consume all tokens up to and including the {@link #END_TAG} matching the
+     * current {@link #START_TAG}, reading only what's needed to keep our
+     * interned string references valid.
+     */
+    private void scanToEndTag() throws XmlPullParserException, IOException {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = mIn.readByte();
+            final int token = event & 0x0f;
+            final int type = event & 0xf0;
+            switch (token) {
+                case ATTRIBUTE:
+                    readInternedUTF();
+                    skipAttributeValue(type);
+                    break;
+                case XmlPullParser.START_TAG:
+                    readInternedUTF();
+                    depth++;
+                    break;
+                case XmlPullParser.END_TAG:
+                    mCurrentName = readInternedUTF();
+                    depth--;
+                    break;
+                case XmlPullParser.TEXT:
+                case XmlPullParser.CDSECT:
+                case XmlPullParser.PROCESSING_INSTRUCTION:
+                case XmlPullParser.COMMENT:
+                case XmlPullParser.DOCDECL:
+                case XmlPullParser.IGNORABLE_WHITESPACE:
+                case XmlPullParser.ENTITY_REF:
+                    skipFully(mIn.readUnsignedShort());
+                    break;
+                default:
+                    throw new XmlPullParserException("Unexpected token " + token
+                            + " with type " + type + " inside element " + mCurrentName);
+            }
+        }
+    }
+
+    /**
+     * Skip over an attribute value of the given type.
+     */
+    private void skipAttributeValue(int type) throws IOException {
+        switch (type) {
+            case TYPE_NULL:
+            case TYPE_BOOLEAN_TRUE:
+            case TYPE_BOOLEAN_FALSE:
+                break;
+            case TYPE_STRING:
+            case TYPE_BYTES_HEX:
+            case TYPE_BYTES_BASE64:
+                skipFully(mIn.readUnsignedShort());
+                break;
+            case TYPE_STRING_INTERNED:
+                // Must be read to keep later references valid
+                readInternedUTF();
+                break;
+            case TYPE_INT:
+                if (mVarint) {
+                    mIn.readVarInt();
+                } else {
+                    skipFully(4);
+                }
+                break;
+            case TYPE_LONG:
+                if (mVarint) {
+                    mIn.readVarLong();
+                } else {
+                    skipFully(8);
+                }
+                break;
+            case TYPE_INT_HEX:
+            case TYPE_FLOAT:
+                skipFully(4);
+                break;
+            case TYPE_LONG_HEX:
+            case TYPE_DOUBLE:
+                skipFully(8);
+                break;
+            default:
+                throw new IOException("Unexpected data type " + type);
+        }
+    }
+
+    private void skipFully(int n) throws IOException {
+        if (mIn.skipBytes(n) != n) {
+            throw new EOFException();
+        }
+    }
+
+    /**
+     * Attempt to seek directly past the end of the given child of the root
+     * element using the document index.
+     *
+     * @return {@code true} when positioned immediately after the matching
+     *         {@link #END_TAG}, otherwise {@code false} when no usable index
+     *         is available and nothing was consumed.
+     */
+    private boolean seekToChildEnd(int child) throws IOException {
+        if (!ensureIndex()) return false;
+        final MappedFastDataInput in = (MappedFastDataInput) mIn;
+
+        // Only trust the index when it agrees with where we actually are
+        final int position = in.position();
+        if (child < 0 || child >= mIndexCount
+                || mIndexOffsets[child << 1] >= position
+                || mIndexOffsets[(child << 1) + 1] < position) {
+            return false;
+        }
+        in.seek(mIndexOffsets[(child << 1) + 1]);
+        in.setStringRefs(mIndexStrings, mIndexStringRefs[(child << 1) + 1]);
+        return true;
+    }
+
+    /**
+     * Load the document index on first use.
+     *
+     * @return {@code true} when our input supports seeking and an index is
+     *         available.
+     */
+    private boolean ensureIndex() throws IOException {
+        if (!(mIn instanceof MappedFastDataInput)) return false;
+        if (!mIndexLoaded) {
+            mIndexLoaded = true;
+            loadIndex((MappedFastDataInput) mIn);
+        }
+        return mIndexStrings != null;
+    }
+
+    /**
+     * Load the index described by {@link #PROTOCOL_MAGIC_INDEX} when present,
+     * restoring the original position of the given input afterwards.
+     */
+    private void loadIndex(@NonNull MappedFastDataInput in) throws IOException {
+        final int length = in.length();
+        final int trailer = length - 12;
+        if (trailer < PROTOCOL_MAGIC_VERSION_0.length) return;
+
+        final int position = in.position();
+        try {
+            final byte[] magic = new byte[4];
+            in.seek(length - 4);
+            in.readFully(magic);
+            if (!Arrays.equals(magic, PROTOCOL_MAGIC_INDEX)) return;
+
+            in.seek(trailer);
+            final long offset = in.readLong();
+            if (offset < PROTOCOL_MAGIC_VERSION_0.length || offset >= trailer) {
+                throw new IOException("Invalid index offset " + offset);
+            }
+            in.seek((int) offset);
+
+            // Each entry and string occupies at least one byte, which bounds
+            // the counts we're willing to allocate for
+            final int count = in.readVarInt();
+            if (count < 0 || count > trailer - offset) {
+                throw new IOException("Invalid index count " + count);
+            }
+            final int[] offsets = new int[count << 1];
+            final int[] stringRefs = new int[count << 1];
+            for (int i = 0; i < count << 1; i++) {
+                final long value = in.readVarLong();
+                if (value < 0 || value > offset) {
+                    throw new IOException("Invalid index entry " + value);
+                }
+                offsets[i] = (int) value;
+                stringRefs[i] = in.readVarInt();
+            }
+
+            final int stringCount = in.readVarInt();
+            if (stringCount < 0 || stringCount > trailer - offset) {
+                throw new IOException("Invalid index string count " + stringCount);
+            }
+            final long[] stringOffsets = new long[stringCount];
+            long stringOffset = 0;
+            for (int i = 0; i < stringCount; i++) {
+                stringOffset += in.readVarLong();
+                if (stringOffset < PROTOCOL_MAGIC_VERSION_0.length || stringOffset >= offset) {
+                    throw new IOException("Invalid index string offset " + stringOffset);
+                }
+                stringOffsets[i] = stringOffset;
+            }
+
+            // Values are stored once in the body of the document, where the
+            // index points at them
+            final String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                in.seek((int) stringOffsets[i]);
+                strings[i] = in.readUTF();
+            }
+            for (int i = 0; i < count << 1; i++) {
+                if (stringRefs[i] < 0 || stringRefs[i] > stringCount) {
+                    throw new IOException("Invalid index string reference " + stringRefs[i]);
+                }
+            }
+
+            mIndexCount = count;
+            mIndexOffsets = offsets;
+            mIndexStringRefs = stringRefs;
+            mIndexStrings = strings;
+        } finally {
+            in.seek(position);
+        }
+    }
+
+    /**
+     * Read a {@link String} using the interning scheme of the protocol version
+     * of the current document.
+     */
+    private @NonNull String readInternedUTF() throws IOException {
+        if (mProtocolVersion == 0) {
+            return mIn.readInternedUTF();
+        } else {
+            return mIn.readVarInternedUTF();
+        }
+    }
+
     /**
      * Peek at the next "external" token without consuming it.
      * <p>
@@ -222,45 +1136,7 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
         final int type = event & 0xf0;
         switch (token) {
             case ATTRIBUTE: {
-                final Attribute attr = obtainAttribute();
-                attr.name = mIn.readInternedUTF();
-                attr.type = type;
-                switch (type) {
-                    case TYPE_NULL:
-                    case TYPE_BOOLEAN_TRUE:
-                    case TYPE_BOOLEAN_FALSE:
-                        // Nothing extra to fill in
-                        break;
-                    case TYPE_STRING:
-                        attr.valueString = mIn.readUTF();
-                        break;
-                    case TYPE_STRING_INTERNED:
-                        attr.valueString = mIn.readInternedUTF();
-                        break;
-                    case TYPE_BYTES_HEX:
-                    case TYPE_BYTES_BASE64:
-                        final int len = mIn.readUnsignedShort();
-                        final byte[] res = new byte[len];
-                        mIn.readFully(res);
-                        attr.valueBytes = res;
-                        break;
-                    case TYPE_INT:
-                    case TYPE_INT_HEX:
-                        attr.valueInt = mIn.readInt();
-                        break;
-                    case TYPE_LONG:
-                    case TYPE_LONG_HEX:
-                        attr.valueLong = mIn.readLong();
-                        break;
-                    case TYPE_FLOAT:
-                        attr.valueFloat = mIn.readFloat();
-                        break;
-                    case TYPE_DOUBLE:
-                        attr.valueDouble = mIn.readDouble();
-                        break;
-                    default:
-                        throw new IOException("Unexpected data type " + type);
-                }
+                readAttribute(obtainAttribute(), type, null);
                 break;
             }
             case XmlPullParser.START_DOCUMENT: {
@@ -276,18 +1152,28 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
                 break;
             }
             case XmlPullParser.START_TAG: {
-                mCurrentName = mIn.readInternedUTF();
+                mCurrentName = readInternedUTF();
                 mCurrentText = null;
                 if (mAttributeCount > 0) resetAttributes();
                 break;
             }
             case XmlPullParser.END_TAG: {
-                mCurrentName = mIn.readInternedUTF();
+                mCurrentName = readInternedUTF();
                 mCurrentText = null;
                 if (mAttributeCount > 0) resetAttributes();
                 break;
             }
-            case XmlPullParser.TEXT:
+            case XmlPullParser.TEXT: {
+                mCurrentName = null;
+                if (mRawText) {
+                    mCurrentText = null;
+                    readTextData();
+                } else {
+                    mCurrentText = mIn.readUTF();
+                }
+                if (mAttributeCount > 0) resetAttributes();
+                break;
+            }
             case XmlPullParser.CDSECT:
             case XmlPullParser.PROCESSING_INSTRUCTION:
             case XmlPullParser.COMMENT:
@@ -297,17 +1183,163 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
                 mCurrentText = mIn.readUTF();
                 if (mAttributeCount > 0) resetAttributes();
                 break;
-            }
-            case XmlPullParser.ENTITY_REF: {
-                mCurrentName = mIn.readUTF();
-                mCurrentText = resolveEntity(mCurrentName);
-                if (mAttributeCount > 0) resetAttributes();
+            }
+            case XmlPullParser.ENTITY_REF: {
+                mCurrentName = mIn.readUTF();
+                mCurrentText = resolveEntity(mCurrentName);
+                if (mAttributeCount > 0) resetAttributes();
+                break;
+            }
+            default: {
+                throw new IOException("Unknown token " + token + " with type " + type);
+            }
+        }
+    }
+
+    /**
+     * Read the name and value of an attribute of the given type into the given
+     * {@link Attribute}. Raw values are copied into the storage of the given
+     * {@link EventBatch}, or into our own storage when {@code null}.
+     */
+    private void readAttribute(@NonNull Attribute attr, int type, @Nullable EventBatch batch)
+            throws IOException {
+        attr.name = readInternedUTF();
+        attr.type = type;
+        switch (type) {
+            case TYPE_NULL:
+            case TYPE_BOOLEAN_TRUE:
+            case TYPE_BOOLEAN_FALSE:
+                // Nothing extra to fill in
+                break;
+            case TYPE_STRING:
+                if (mLazyAttributes) {
+                    readAttributeData(attr, batch);
+                } else {
+                    attr.valueString = mIn.readUTF();
+                }
+                break;
+            case TYPE_STRING_INTERNED:
+                attr.valueString = readInternedUTF();
+                break;
+            case TYPE_BYTES_HEX:
+            case TYPE_BYTES_BASE64:
+                // Only allocated if requested as an array
+                readAttributeData(attr, batch);
+                break;
+            case TYPE_INT:
+                if (mVarint) {
+                    final int zigzag = mIn.readVarInt();
+                    attr.valueInt = (zigzag >>> 1) ^ -(zigzag & 1);
+                } else {
+                    attr.valueInt = mIn.readInt();
+                }
+                break;
+            case TYPE_INT_HEX:
+                attr.valueInt = mIn.readInt();
+                break;
+            case TYPE_LONG:
+                if (mVarint) {
+                    final long zigzag = mIn.readVarLong();
+                    attr.valueLong = (zigzag >>> 1) ^ -(zigzag & 1);
+                } else {
+                    attr.valueLong = mIn.readLong();
+                }
                 break;
+            case TYPE_LONG_HEX:
+                attr.valueLong = mIn.readLong();
+                break;
+            case TYPE_FLOAT:
+                attr.valueFloat = mIn.readFloat();
+                break;
+            case TYPE_DOUBLE:
+                attr.valueDouble = mIn.readDouble();
+                break;
+            default:
+                throw new IOException("Unexpected data type " + type);
+        }
+    }
+
+    /**
+     * Copy the raw length-prefixed value of the current text token into
+     * {@link #mTextData}.
+     */
+    private void readTextData() throws IOException {
+        final int len = mIn.readUnsignedShort();
+        if (mTextData == null || mTextData.length < len) {
+            mTextData = new byte[Math.max(len, 256)];
+        }
+        mIn.readFully(mTextData, 0, len);
+        mTextDataLength = len;
+    }
+
+    /**
+     * Copy the raw length-prefixed value of the given attribute into
+     * {@link #mAttributeData}, to be decoded later by {@link #getAttribute(int)},
+     * or into the storage of the given {@link EventBatch}.
+     */
+    private void readAttributeData(@NonNull Attribute attr, @Nullable EventBatch batch)
+            throws IOException {
+        if (batch != null) {
+            batch.readAttributeData(mIn, attr);
+            return;
+        }
+        final int len = mIn.readUnsignedShort();
+        if (mAttributeData == null || mAttributeData.length - mAttributeDataSize < len) {
+            // Attributes already read keep referencing the previous buffer
+            final int size = (mAttributeData == null) ? 256 : mAttributeData.length << 1;
+            mAttributeData = new byte[Math.max(size, len)];
+            mAttributeDataSize = 0;
+        }
+        mIn.readFully(mAttributeData, mAttributeDataSize, len);
+        attr.valueData = mAttributeData;
+        attr.valueOffset = mAttributeDataSize;
+        attr.valueLength = len;
+        mAttributeDataSize += len;
+    }
+
+    /**
+     * Return the requested {@link Attribute}, first decoding any raw value
+     * deferred by {@link #FEATURE_LAZY_ATTRIBUTES}.
+     */
+    private @NonNull Attribute getAttribute(int index) throws XmlPullParserException {
+        final Attribute attr = mAttributes[index];
+        if (attr.valueData != null) {
+            try {
+                decodeAttribute(attr);
+            } catch (UTFDataFormatException e) {
+                throw new XmlPullParserException("Invalid attribute " + attr.name + ": " + e);
             }
-            default: {
-                throw new IOException("Unknown token " + token + " with type " + type);
+        }
+        return attr;
+    }
+
+    /**
+     * Variant of {@link #getAttribute(int)} for methods which can't throw
+     * checked exceptions, which reports malformed values as
+     * {@link UncheckedIOException}.
+     */
+    private @NonNull Attribute getAttributeUnchecked(int index) {
+        final Attribute attr = mAttributes[index];
+        if (attr.valueData != null) {
+            try {
+                decodeAttribute(attr);
+            } catch (UTFDataFormatException e) {
+                throw new UncheckedIOException(e);
             }
         }
+        return attr;
+    }
+
+    /**
+     * Decode the raw value of the given attribute.
+     */
+    private void decodeAttribute(@NonNull Attribute attr) throws UTFDataFormatException {
+        final int len = attr.valueLength;
+        if (attr.type == TYPE_STRING
+                && (mAttributeChars == null || mAttributeChars.length < len)) {
+            mAttributeChars = new char[Math.max(len, 256)];
+        }
+        attr.decodeValueData(mAttributeChars);
     }
 
     /**
@@ -316,7 +1348,8 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
      * will still be {@link #TEXT}.
      */
     private void consumeAdditionalText() throws IOException, XmlPullParserException {
-        String combinedText = mCurrentText;
+        final String firstText = mCurrentText;
+        StringBuilder combinedText = null;
         while (true) {
             final int token = peekNextExternalToken();
             switch (token) {
@@ -330,18 +1363,43 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
                 case ENTITY_REF:
                     // Additional text regions collected
                     consumeToken();
-                    combinedText += mCurrentText;
+                    if (combinedText == null) {
+                        combinedText = obtainTextBuilder();
+                        combinedText.append(firstText);
+                    }
+                    combinedText.append(mCurrentText);
                     break;
                 default:
                     // Next token is something non-text, so wrap things up
                     mCurrentToken = TEXT;
                     mCurrentName = null;
-                    mCurrentText = combinedText;
+                    if (combinedText != null) {
+                        mCurrentText = combinedText.toString();
+                        releaseTextBuilder(combinedText);
+                    } else {
+                        mCurrentText = firstText;
+                    }
                     return;
             }
         }
     }
 
+    private @NonNull StringBuilder obtainTextBuilder() {
+        if (mTextBuilder == null) {
+            mTextBuilder = new StringBuilder();
+        }
+        return mTextBuilder;
+    }
+
+    private void releaseTextBuilder(@NonNull StringBuilder builder) {
+        // Avoid holding onto storage from rare, very large text regions
+        if (builder.capacity() > MAX_RETAINED_TEXT_CAPACITY) {
+            mTextBuilder = null;
+        } else {
+            builder.setLength(0);
+        }
+    }
+
     static @NonNull String resolveEntity(@NonNull String entity)
             throws XmlPullParserException {
         switch (entity) {
@@ -413,6 +1471,7 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
                 mAttributes[i] = new Attribute();
             }
         }
+        mAttributeTableValid = false;
         return mAttributes[mAttributeCount++];
     }
 
@@ -425,24 +1484,82 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
             mAttributes[i].reset();
         }
         mAttributeCount = 0;
+        mAttributeDataSize = 0;
+        mAttributeTableValid = false;
     }
 
     @Override
     public int getAttributeIndex(String namespace, String name) {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
+        if (mAttributeCount <= ATTRIBUTE_TABLE_THRESHOLD || name == null) {
+            for (int i = 0; i < mAttributeCount; i++) {
+                if (Objects.equals(mAttributes[i].name, name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        if (!mAttributeTableValid) {
+            buildAttributeTable();
+        }
+        final int[] table = mAttributeTable;
+        final int mask = table.length - 1;
+        int slot = hashAttributeName(name) & mask;
+        while (true) {
+            final int index = table[slot] - 1;
+            if (index == -1) {
+                return -1;
+            }
+            // Names are interned while parsing, so callers which pass along
+            // names from this parser typically match by identity
+            final String candidate = mAttributes[index].name;
+            if (candidate == name || candidate.equals(name)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Populate {@link #mAttributeTable} with all attributes of the current tag,
+     * keeping it at most half full. When a name is repeated, the first
+     * attribute wins to match a linear scan.
+     */
+    private void buildAttributeTable() {
+        int capacity = Integer.highestOneBit(mAttributeCount) << 2;
+        if (mAttributeTable == null || mAttributeTable.length < capacity) {
+            mAttributeTable = new int[capacity];
+        } else {
+            capacity = mAttributeTable.length;
+            Arrays.fill(mAttributeTable, 0);
+        }
+
+        final int mask = capacity - 1;
         for (int i = 0; i < mAttributeCount; i++) {
-            if (Objects.equals(mAttributes[i].name, name)) {
-                return i;
+            final String name = mAttributes[i].name;
+            int slot = hashAttributeName(name) & mask;
+            while (mAttributeTable[slot] != 0
+                    && !mAttributes[mAttributeTable[slot] - 1].name.equals(name)) {
+                slot = (slot + 1) & mask;
+            }
+            if (mAttributeTable[slot] == 0) {
+                mAttributeTable[slot] = i + 1;
             }
         }
-        return -1;
+        mAttributeTableValid = true;
+    }
+
+    private static int hashAttributeName(@NonNull String name) {
+        final int hash = name.hashCode();
+        return hash ^ (hash >>> 16);
     }
 
     @Override
     public String getAttributeValue(String namespace, String name) {
         final int index = getAttributeIndex(namespace, name);
         if (index != -1) {
-            return mAttributes[index].getValueString();
+            return getAttributeUnchecked(index).getValueString();
         } else {
             return null;
         }
@@ -450,52 +1567,254 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
 
     @Override
     public String getAttributeValue(int index) {
-        return mAttributes[index].getValueString();
+        return getAttributeUnchecked(index).getValueString();
     }
 
     @Override
     public byte[] getAttributeBytesHex(int index) throws XmlPullParserException {
-        return mAttributes[index].getValueBytesHex();
+        return getAttribute(index).getValueBytesHex();
     }
 
     @Override
     public byte[] getAttributeBytesBase64(int index) throws XmlPullParserException {
-        return mAttributes[index].getValueBytesBase64();
+        return getAttribute(index).getValueBytesBase64();
+    }
+
+    @Override
+    public int getAttributeBytesHexLength(int index) throws XmlPullParserException {
+        final Attribute attr = mAttributes[index];
+        return isRawBytes(attr) ? attr.valueLength
+                : TypedXmlPullParser.super.getAttributeBytesHexLength(index);
+    }
+
+    @Override
+    public int getAttributeBytesBase64Length(int index) throws XmlPullParserException {
+        final Attribute attr = mAttributes[index];
+        return isRawBytes(attr) ? attr.valueLength
+                : TypedXmlPullParser.super.getAttributeBytesBase64Length(index);
+    }
+
+    @Override
+    public int readAttributeBytesHex(int index, @NonNull byte[] dst, int off)
+            throws XmlPullParserException {
+        final Attribute attr = mAttributes[index];
+        if (!isRawBytes(attr)) {
+            return TypedXmlPullParser.super.readAttributeBytesHex(index, dst, off);
+        }
+        System.arraycopy(attr.valueData, attr.valueOffset, dst, off, attr.valueLength);
+        return attr.valueLength;
+    }
+
+    @Override
+    public int readAttributeBytesBase64(int index, @NonNull byte[] dst, int off)
+            throws XmlPullParserException {
+        final Attribute attr = mAttributes[index];
+        if (!isRawBytes(attr)) {
+            return TypedXmlPullParser.super.readAttributeBytesBase64(index, dst, off);
+        }
+        System.arraycopy(attr.valueData, attr.valueOffset, dst, off, attr.valueLength);
+        return attr.valueLength;
+    }
+
+    @Override
+    public int readAttributeBytesHex(int index, @NonNull ByteBuffer dst)
+            throws XmlPullParserException {
+        final Attribute attr = mAttributes[index];
+        if (!isRawBytes(attr)) {
+            return TypedXmlPullParser.super.readAttributeBytesHex(index, dst);
+        }
+        dst.put(attr.valueData, attr.valueOffset, attr.valueLength);
+        return attr.valueLength;
+    }
+
+    @Override
+    public int readAttributeBytesBase64(int index, @NonNull ByteBuffer dst)
+            throws XmlPullParserException {
+        final Attribute attr = mAttributes[index];
+        if (!isRawBytes(attr)) {
+            return TypedXmlPullParser.super.readAttributeBytesBase64(index, dst);
+        }
+        dst.put(attr.valueData, attr.valueOffset, attr.valueLength);
+        return attr.valueLength;
+    }
+
+    /**
+     * Return if the given attribute is a {@code byte[]} value which is still
+     * held in raw form, and can be copied without decoding or allocating.
+     */
+    private static boolean isRawBytes(@NonNull Attribute attr) {
+        return attr.valueData != null
+                && (attr.type == TYPE_BYTES_HEX || attr.type == TYPE_BYTES_BASE64);
     }
 
     @Override
     public int getAttributeInt(int index) throws XmlPullParserException {
-        return mAttributes[index].getValueInt();
+        return getAttribute(index).getValueInt();
     }
 
     @Override
     public int getAttributeIntHex(int index) throws XmlPullParserException {
-        return mAttributes[index].getValueIntHex();
+        return getAttribute(index).getValueIntHex();
     }
 
     @Override
     public long getAttributeLong(int index) throws XmlPullParserException {
-        return mAttributes[index].getValueLong();
+        return getAttribute(index).getValueLong();
     }
 
     @Override
     public long getAttributeLongHex(int index) throws XmlPullParserException {
-        return mAttributes[index].getValueLongHex();
+        return getAttribute(index).getValueLongHex();
     }
 
     @Override
     public float getAttributeFloat(int index) throws XmlPullParserException {
-        return mAttributes[index].getValueFloat();
+        return getAttribute(index).getValueFloat();
     }
 
     @Override
     public double getAttributeDouble(int index) throws XmlPullParserException {
-        return mAttributes[index].getValueDouble();
+        return getAttribute(index).getValueDouble();
     }
 
     @Override
     public boolean getAttributeBoolean(int index) throws XmlPullParserException {
-        return mAttributes[index].getValueBoolean();
+        return getAttribute(index).getValueBoolean();
+    }
+
+    /**
+     * Write the given attribute of the current tag to the given serializer,
+     * preserving its original data type.
+     */
+    void copyAttribute(int index, @NonNull TypedXmlSerializer out) throws IOException {
+        final Attribute attr = mAttributes[index];
+        if (attr.valueData != null) {
+            decodeAttribute(attr);
+        }
+        switch (attr.type) {
+            case TYPE_STRING:
+                out.attribute(null, attr.name, attr.valueString);
+                break;
+            case TYPE_STRING_INTERNED:
+                out.attributeInterned(null, attr.name, attr.valueString);
+                break;
+            case TYPE_BYTES_HEX:
+                out.attributeBytesHex(null, attr.name, attr.valueBytes);
+                break;
+            case TYPE_BYTES_BASE64:
+                out.attributeBytesBase64(null, attr.name, attr.valueBytes);
+                break;
+            case TYPE_INT:
+                out.attributeInt(null, attr.name, attr.valueInt);
+                break;
+            case TYPE_INT_HEX:
+                out.attributeIntHex(null, attr.name, attr.valueInt);
+                break;
+            case TYPE_LONG:
+                out.attributeLong(null, attr.name, attr.valueLong);
+                break;
+            case TYPE_LONG_HEX:
+                out.attributeLongHex(null, attr.name, attr.valueLong);
+                break;
+            case TYPE_FLOAT:
+                out.attributeFloat(null, attr.name, attr.valueFloat);
+                break;
+            case TYPE_DOUBLE:
+                out.attributeDouble(null, attr.name, attr.valueDouble);
+                break;
+            case TYPE_BOOLEAN_TRUE:
+                out.attributeBoolean(null, attr.name, true);
+                break;
+            case TYPE_BOOLEAN_FALSE:
+                out.attributeBoolean(null, attr.name, false);
+                break;
+            default:
+                // Null values have no typed representation; quietly omitted
+                break;
+        }
+    }
+
+    /**
+     * Retain the raw values of {@link #TEXT} tokens to be written by
+     * {@link #copyText} instead of decoding them, in which case
+     * {@link #getText()} returns {@code null} for those tokens.
+     */
+    void setRawText(boolean rawText) {
+        mRawText = rawText;
+    }
+
+    /**
+     * Write the current {@link #TEXT} token to the given writer, copying its
+     * raw value when {@link #setRawText} is enabled. Empty text regions are
+     * still written, since they close any open start tag.
+     */
+    void copyText(@NonNull XmlTextWriter out) throws IOException {
+        if (mRawText) {
+            out.textModifiedUtf8(mTextData, 0, mTextDataLength);
+        } else {
+            out.text(mCurrentText);
+        }
+    }
+
+    /**
+     * Write the given attribute of the current tag to the given writer as
+     * text, formatting typed values and copying raw values straight from
+     * their binary representation without decoding them first.
+     */
+    void copyAttributeText(int index, @NonNull XmlTextWriter out) throws IOException {
+        final Attribute attr = mAttributes[index];
+        switch (attr.type) {
+            case TYPE_STRING:
+                if (attr.valueData != null) {
+                    out.attributeModifiedUtf8(attr.name, attr.valueData, attr.valueOffset,
+                            attr.valueLength);
+                } else {
+                    out.attribute(attr.name, attr.valueString);
+                }
+                break;
+            case TYPE_STRING_INTERNED:
+            case TYPE_BOOLEAN_TRUE:
+            case TYPE_BOOLEAN_FALSE:
+                // Values are shared instances, which are cheaply written
+                out.attributeInterned(attr.name, attr.getValueString());
+                break;
+            case TYPE_BYTES_HEX:
+                if (attr.valueData != null) {
+                    out.attributeBytesHex(attr.name, attr.valueData, attr.valueOffset,
+                            attr.valueLength);
+                } else {
+                    out.attributeBytesHex(attr.name, attr.valueBytes, 0, attr.valueBytes.length);
+                }
+                break;
+            case TYPE_BYTES_BASE64:
+                if (attr.valueData != null) {
+                    out.attributeBytesBase64(attr.name, attr.valueData, attr.valueOffset,
+                            attr.valueLength);
+                } else {
+                    out.attributeBytesBase64(attr.name, attr.valueBytes, 0,
+                            attr.valueBytes.length);
+                }
+                break;
+            case TYPE_INT:
+                out.attributeLong(attr.name, attr.valueInt);
+                break;
+            case TYPE_INT_HEX:
+                out.attributeLongHex(attr.name, attr.valueInt);
+                break;
+            case TYPE_LONG:
+                out.attributeLong(attr.name, attr.valueLong);
+                break;
+            case TYPE_LONG_HEX:
+                out.attributeLongHex(attr.name, attr.valueLong);
+                break;
+            case TYPE_NULL:
+                // Null values have no text representation; quietly omitted
+                break;
+            default:
+                // Remaining values are rare enough to format the usual way
+                out.attribute(attr.name, attr.getValueString());
+                break;
+        }
     }
 
     @Override
@@ -505,9 +1824,25 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
 
     @Override
     public char[] getTextCharacters(int[] holderForStartAndLength) {
-        final char[] chars = mCurrentText.toCharArray();
+        if (mCurrentText == null) {
+            holderForStartAndLength[0] = -1;
+            holderForStartAndLength[1] = -1;
+            return null;
+        }
+
+        // Per interface docs, the returned array is only valid until the next
+        // event, so we reuse it across calls
+        final int len = mCurrentText.length();
+        if (mTextChars == null || mTextChars.length < len) {
+            mTextChars = new char[Math.max(len, 64)];
+        }
+        mCurrentText.getChars(0, len, mTextChars, 0);
         holderForStartAndLength[0] = 0;
-        holderForStartAndLength[1] = chars.length;
+        holderForStartAndLength[1] = len;
+        final char[] chars = mTextChars;
+        if (len > MAX_RETAINED_TEXT_CAPACITY) {
+            mTextChars = null;
+        }
         return chars;
     }
 
@@ -659,13 +1994,20 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
 
     @Override
     public void setFeature(String name, boolean state) throws XmlPullParserException {
-        // Features are not supported
+        if (FEATURE_LAZY_ATTRIBUTES.equals(name)) {
+            mLazyAttributes = state;
+            return;
+        }
+        // Other features are not supported
         throw new UnsupportedOperationException();
     }
 
     @Override
     public boolean getFeature(String name) {
-        // Features are not supported
+        if (FEATURE_LAZY_ATTRIBUTES.equals(name)) {
+            return mLazyAttributes;
+        }
+        // Other features are not supported
         throw new UnsupportedOperationException();
     }
 
@@ -685,6 +2027,213 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
         throw new IllegalArgumentException("Namespaces are not supported");
     }
 
+    /**
+     * Reusable storage for events read in bulk by {@link #nextEvents}, where
+     * each event is addressed by its position in the batch. Names are the
+     * canonical instances interned by the parser, so repeated names are
+     * identical.
+     */
+    public static final class EventBatch {
+        private int mCount;
+        private final int[] mTokens;
+        private final String[] mNames;
+        private final String[] mTexts;
+        private final int[] mDepths;
+
+        /**
+         * Attributes of all events in this batch, where the attributes of each
+         * event end at the matching offset in {@link #mAttributeEnds}.
+         */
+        private final int[] mAttributeEnds;
+        private int mAttributeCount;
+        private Attribute[] mAttributes = new Attribute[0];
+
+        public EventBatch(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException();
+            }
+            mTokens = new int[capacity];
+            mNames = new String[capacity];
+            mTexts = new String[capacity];
+            mDepths = new int[capacity];
+            mAttributeEnds = new int[capacity];
+        }
+
+        /**
+         * Raw values deferred by {@link #FEATURE_LAZY_ATTRIBUTES}, which are
+         * decoded on demand using {@link #mAttributeChars}.
+         */
+        private byte[] mAttributeData;
+        private int mAttributeDataSize;
+        private char[] mAttributeChars;
+
+        private void clear() {
+            Arrays.fill(mNames, 0, mCount, null);
+            Arrays.fill(mTexts, 0, mCount, null);
+            for (int i = 0; i < mAttributeCount; i++) {
+                mAttributes[i].reset();
+            }
+            mCount = 0;
+            mAttributeCount = 0;
+            mAttributeDataSize = 0;
+        }
+
+        private @NonNull Attribute obtainAttribute() {
+            if (mAttributeCount == mAttributes.length) {
+                final int before = mAttributes.length;
+                final int after = Math.max(8, before + (before >> 1));
+                mAttributes = Arrays.copyOf(mAttributes, after);
+                for (int i = before; i < after; i++) {
+                    mAttributes[i] = new Attribute();
+                }
+            }
+            return mAttributes[mAttributeCount++];
+        }
+
+        /**
+         * Copy the raw length-prefixed value of the given attribute into
+         * {@link #mAttributeData}.
+         */
+        private void readAttributeData(@NonNull FastDataInput in, @NonNull Attribute attr)
+                throws IOException {
+            final int len = in.readUnsignedShort();
+            if (mAttributeData == null || mAttributeData.length - mAttributeDataSize < len) {
+                // Attributes already read keep referencing the previous buffer
+                final int size = (mAttributeData == null) ? 256 : mAttributeData.length << 1;
+                mAttributeData = new byte[Math.max(size, len)];
+                mAttributeDataSize = 0;
+            }
+            in.readFully(mAttributeData, mAttributeDataSize, len);
+            attr.valueData = mAttributeData;
+            attr.valueOffset = mAttributeDataSize;
+            attr.valueLength = len;
+            mAttributeDataSize += len;
+        }
+
+        private @NonNull Attribute getAttribute(int event, int index) {
+            final int start = (event == 0) ? 0 : mAttributeEnds[event - 1];
+            if (event >= mCount || index < 0 || start + index >= mAttributeEnds[event]) {
+                throw new IndexOutOfBoundsException();
+            }
+            return mAttributes[start + index];
+        }
+
+        /**
+         * Return the requested {@link Attribute}, first decoding any raw value.
+         */
+        private @NonNull Attribute getDecodedAttribute(int event, int index)
+                throws UTFDataFormatException {
+            final Attribute attr = getAttribute(event, index);
+            if (attr.valueData != null) {
+                if (attr.type == TYPE_STRING && (mAttributeChars == null
+                        || mAttributeChars.length < attr.valueLength)) {
+                    mAttributeChars = new char[Math.max(attr.valueLength, 256)];
+                }
+                attr.decodeValueData(mAttributeChars);
+            }
+            return attr;
+        }
+
+        private @NonNull Attribute getValueAttribute(int event, int index)
+                throws XmlPullParserException {
+            try {
+                return getDecodedAttribute(event, index);
+            } catch (UTFDataFormatException e) {
+                throw new XmlPullParserException("Invalid attribute "
+                        + getAttribute(event, index).name + ": " + e);
+            }
+        }
+
+        public int getCapacity() {
+            return mTokens.length;
+        }
+
+        public int size() {
+            return mCount;
+        }
+
+        public int getEventType(int event) {
+            return mTokens[event];
+        }
+
+        public @Nullable String getName(int event) {
+            return mNames[event];
+        }
+
+        public @Nullable String getText(int event) {
+            return mTexts[event];
+        }
+
+        public int getDepth(int event) {
+            return mDepths[event];
+        }
+
+        public int getAttributeCount(int event) {
+            final int start = (event == 0) ? 0 : mAttributeEnds[event - 1];
+            return mAttributeEnds[event] - start;
+        }
+
+        public int getAttributeIndex(int event, @NonNull String name) {
+            final int count = getAttributeCount(event);
+            for (int i = 0; i < count; i++) {
+                if (name.equals(getAttribute(event, i).name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public @NonNull String getAttributeName(int event, int index) {
+            return getAttribute(event, index).name;
+        }
+
+        public @Nullable String getAttributeValue(int event, int index) {
+            try {
+                return getDecodedAttribute(event, index).getValueString();
+            } catch (UTFDataFormatException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public @Nullable byte[] getAttributeBytesHex(int event, int index)
+                throws XmlPullParserException {
+            return getValueAttribute(event, index).getValueBytesHex();
+        }
+
+        public @Nullable byte[] getAttributeBytesBase64(int event, int index)
+                throws XmlPullParserException {
+            return getValueAttribute(event, index).getValueBytesBase64();
+        }
+
+        public int getAttributeInt(int event, int index) throws XmlPullParserException {
+            return getValueAttribute(event, index).getValueInt();
+        }
+
+        public int getAttributeIntHex(int event, int index) throws XmlPullParserException {
+            return getValueAttribute(event, index).getValueIntHex();
+        }
+
+        public long getAttributeLong(int event, int index) throws XmlPullParserException {
+            return getValueAttribute(event, index).getValueLong();
+        }
+
+        public long getAttributeLongHex(int event, int index) throws XmlPullParserException {
+            return getValueAttribute(event, index).getValueLongHex();
+        }
+
+        public float getAttributeFloat(int event, int index) throws XmlPullParserException {
+            return getValueAttribute(event, index).getValueFloat();
+        }
+
+        public double getAttributeDouble(int event, int index) throws XmlPullParserException {
+            return getValueAttribute(event, index).getValueDouble();
+        }
+
+        public boolean getAttributeBoolean(int event, int index) throws XmlPullParserException {
+            return getValueAttribute(event, index).getValueBoolean();
+        }
+    }
+
     /**
      * Holder representing a single attribute. This design enables object
      * recycling without resorting to autoboxing.
@@ -699,15 +2248,38 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
 
         public String valueString;
         public byte[] valueBytes;
+
+        /**
+         * Raw value which hasn't been decoded yet, as deferred by
+         * {@link #FEATURE_LAZY_ATTRIBUTES}.
+         */
+        public byte[] valueData;
+        public int valueOffset;
+        public int valueLength;
         public int valueInt;
         public long valueLong;
         public float valueFloat;
         public double valueDouble;
 
+        /**
+         * Decode the raw {@link #valueData}, using the given scratch buffer
+         * which must be large enough to hold the decoded string.
+         */
+        public void decodeValueData(char[] chars) throws UTFDataFormatException {
+            if (type == TYPE_STRING) {
+                valueString = ModifiedUtf8.decode(valueData, chars, valueOffset, valueLength);
+            } else {
+                valueBytes = Arrays.copyOfRange(valueData, valueOffset,
+                        valueOffset + valueLength);
+            }
+            valueData = null;
+        }
+
         public void reset() {
             name = null;
             valueString = null;
             valueBytes = null;
+            valueData = null;
         }
 
         public @Nullable String getValueString() {
@@ -903,6 +2475,112 @@ public class BinaryXmlPullParser implements TypedXmlPullParser {
         }
     }
 
+    /**
+     * Stream which decompresses the blocks written by
+     * {@code BinaryXmlSerializer.BlockDeflaterOutputStream}, reading them from
+     * a raw {@link FastDataInput}. Instances are reusable, so the inflater and
+     * buffers can be shared by many documents.
+     */
+    private static class BlockInflaterInputStream extends InputStream {
+        private FastDataInput mIn;
+        private final Inflater mInflater = new Inflater(true);
+        private final byte[] mCompressed = new byte[BLOCK_SIZE];
+        private final byte[] mBuffer = new byte[BLOCK_SIZE];
+        private int mBufferPos;
+        private int mBufferLim;
+
+        /**
+         * Begin reading blocks from the given raw input.
+         */
+        public void setInput(@NonNull FastDataInput in) {
+            mIn = in;
+            mBufferPos = 0;
+            mBufferLim = 0;
+        }
+
+        /**
+         * Release the raw input, if any, retaining everything else for reuse.
+         */
+        public void release() {
+            if (mIn != null) {
+                mIn.release();
+                mIn = null;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mBufferPos == mBufferLim && !readBlock()) return -1;
+            return mBuffer[mBufferPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (mBufferPos == mBufferLim && !readBlock()) return -1;
+            final int count = Math.min(len, mBufferLim - mBufferPos);
+            System.arraycopy(mBuffer, mBufferPos, b, off, count);
+            mBufferPos += count;
+            return count;
+        }
+
+        /**
+         * Read and decompress the next non-empty block into our buffer.
+         *
+         * @return if a block was read, or {@code false} at the end of input
+         */
+        private boolean readBlock() throws IOException {
+            while (mBufferPos == mBufferLim) {
+                final int type;
+                try {
+                    type = mIn.readByte();
+                } catch (EOFException e) {
+                    return false;
+                }
+                final int rawLen = mIn.readInt();
+                final int storedLen = mIn.readInt();
+                if (rawLen < 0 || rawLen > BLOCK_SIZE || storedLen < 0
+                        || storedLen > BLOCK_SIZE) {
+                    throw new IOException("Invalid block lengths " + rawLen + "/" + storedLen);
+                }
+                switch (type) {
+                    case BLOCK_STORED:
+                        if (storedLen != rawLen) {
+                            throw new IOException("Invalid stored block length " + storedLen);
+                        }
+                        mIn.readFully(mBuffer, 0, rawLen);
+                        break;
+                    case BLOCK_DEFLATE:
+                        mIn.readFully(mCompressed, 0, storedLen);
+                        inflate(storedLen, rawLen);
+                        break;
+                    default:
+                        throw new IOException("Unknown block type " + type);
+                }
+                mBufferPos = 0;
+                mBufferLim = rawLen;
+            }
+            return true;
+        }
+
+        private void inflate(int storedLen, int rawLen) throws IOException {
+            mInflater.reset();
+            mInflater.setInput(mCompressed, 0, storedLen);
+            try {
+                int count = 0;
+                while (count < rawLen) {
+                    final int c = mInflater.inflate(mBuffer, count, rawLen - count);
+                    if (c == 0 && (mInflater.finished() || mInflater.needsInput())) {
+                        throw new IOException("Truncated compressed block");
+                    }
+                    count += c;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
     // NOTE: To support unbundled clients, we include an inlined copy
     // of hex conversion logic from HexDump below
     private final static char[] HEX_DIGITS =
@@ -16,6 +16,8 @@
 
 package com.android.modules.utils;
 
+import static com.android.modules.utils.FastDataOutput.MAX_UNSIGNED_SHORT;
+
 import static org.xmlpull.v1.XmlPullParser.CDSECT;
 import static org.xmlpull.v1.XmlPullParser.COMMENT;
 import static org.xmlpull.v1.XmlPullParser.DOCDECL;
@@ -37,8 +39,13 @@ import org.xmlpull.v1.XmlSerializer;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 /**
  * Serializer that writes XML documents using a custom binary wire protocol
@@ -56,9 +63,11 @@ import java.util.Arrays;
  * This serializer has some specific limitations:
  * <ul>
  * <li>Only the UTF-8 encoding is supported.
- * <li>Variable length values, such as {@code byte[]} or {@link String}, are
- * limited to 65,535 bytes in length. Note that {@link String} values are stored
- * as UTF-8 on the wire.
+ * <li>Tag names, attribute names and attribute values, such as
+ * {@code byte[]} or {@link String}, are limited to 65,535 bytes in length, as
+ * are comments and processing instructions. Text and CDATA sections of any
+ * length are split across multiple events on the wire. Note that
+ * {@link String} values are stored as UTF-8 on the wire.
  * <li>Namespaces, prefixes, properties, and options are unsupported.
  * </ul>
  */
@@ -70,6 +79,71 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
      */
     public static final byte[] PROTOCOL_MAGIC_VERSION_0 = new byte[] { 0x41, 0x42, 0x58, 0x00 };
 
+    /**
+     * Version 1 of the wire protocol is identical to version 0, except that:
+     * <ul>
+     * <li>The magic value is immediately followed by a variable-length integer
+     * of header flags, such as {@link #FLAG_VARINT}.
+     * <li>The flags are followed by a document-level string table, written as
+     * a variable-length count followed by that many {@link String} values,
+     * which are interned ahead of any other values.
+     * <li>Interned values are referenced using variable-length integers, which
+     * removes the limit of 65,535 unique interned values.
+     * </ul>
+     *
+     * @see #setProtocolVersion(int)
+     * @see #setStringTable(String[])
+     */
+    public static final byte[] PROTOCOL_MAGIC_VERSION_1 = new byte[] { 0x41, 0x42, 0x58, 0x01 };
+
+    /**
+     * Compressed documents begin with a magic value of {@code ABXZ}, which is
+     * followed by a complete document of any other version, including its own
+     * magic value, split into independently compressed blocks.
+     * <p>
+     * Each block is a single byte type, such as {@link #BLOCK_DEFLATE},
+     * followed by an {@code int} of its uncompressed length, an {@code int} of
+     * its stored length, and then that many bytes of stored data.
+     *
+     * @see #FEATURE_COMPRESSION
+     */
+    public static final byte[] PROTOCOL_MAGIC_COMPRESSED = new byte[] { 0x41, 0x42, 0x58, 0x5a };
+
+    /**
+     * Indexed documents end with a magic value of {@code ABXI}, which is
+     * preceded by a {@code long} offset of the document index.
+     * <p>
+     * The index is written immediately after the {@link #END_DOCUMENT} token
+     * and any checksum, where it's ignored by parsers reading sequentially. It
+     * contains a variable-length count of indexed elements, followed by the
+     * start offset, start interned string count, end offset and end interned
+     * string count of each child of the root element, all as variable-length
+     * integers. The index then ends with a variable-length count of all
+     * interned strings, followed by the offset of the length-prefixed value of
+     * each in reference order, written as the variable-length distance from
+     * the offset before it, so that values aren't duplicated.
+     *
+     * @see #FEATURE_INDEX
+     */
+    public static final byte[] PROTOCOL_MAGIC_INDEX = new byte[] { 0x41, 0x42, 0x58, 0x49 };
+
+    /**
+     * Header flag of version 1 documents indicating that {@link #TYPE_INT}
+     * and {@link #TYPE_LONG} values are written as zig-zag encoded
+     * variable-length integers instead of at their fixed width.
+     *
+     * @see #FEATURE_VARINT
+     */
+    static final int FLAG_VARINT = 1;
+
+    static final int BLOCK_STORED = 0;
+    static final int BLOCK_DEFLATE = 1;
+
+    /**
+     * Maximum uncompressed length of a single compressed block.
+     */
+    static final int BLOCK_SIZE = 65_536;
+
     /**
      * Internal token which represents an attribute associated with the most
      * recent {@link #START_TAG} token.
@@ -90,8 +164,101 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
     static final int TYPE_BOOLEAN_TRUE = 12 << 4;
     static final int TYPE_BOOLEAN_FALSE = 13 << 4;
 
+    // NOTE: Types 14 and 15 are unused, and are reserved for future extensions
+
+    /**
+     * Feature which writes {@link #attributeInt} and {@link #attributeLong}
+     * values of documents started by future calls to
+     * {@link #setOutput(OutputStream, String)} as zig-zag encoded
+     * variable-length integers, which is more compact for typical values such
+     * as UIDs and counters. Hex values, which are typically flags or hashes,
+     * are always written at their fixed width.
+     * <p>
+     * This reinterprets the existing {@link #TYPE_INT} and {@link #TYPE_LONG}
+     * types as signaled by {@link #FLAG_VARINT}, so it requires protocol
+     * version 1.
+     *
+     * @see #setProtocolVersion(int)
+     */
+    public static final String FEATURE_VARINT =
+            "http://android.com/abx/features.html#varint";
+
+    /**
+     * Feature which compresses documents started by future calls to
+     * {@link #setOutput(OutputStream, String)}, which is effective for the
+     * highly repetitive data typically persisted.
+     * <p>
+     * Documents written with this feature enabled can only be read by parsers
+     * that understand {@link #PROTOCOL_MAGIC_COMPRESSED}.
+     */
+    public static final String FEATURE_COMPRESSION =
+            "http://android.com/abx/features.html#compression";
+
+    /**
+     * Feature which writes an index of the children of the root element at the
+     * end of documents started by future calls to
+     * {@link #setOutput(OutputStream, String)}, which parsers reading directly
+     * from a file can use to skip entire subtrees without parsing them.
+     * <p>
+     * Documents written with this feature enabled remain readable by all
+     * parsers, since the index follows the {@link #END_DOCUMENT} token.
+     * <p>
+     * Offsets in the index refer to the uncompressed document, which can't be
+     * seeked within, so this feature can't be combined with
+     * {@link #FEATURE_COMPRESSION}.
+     *
+     * @see BinaryXmlPullParser#skipSubTree()
+     */
+    public static final String FEATURE_INDEX =
+            "http://android.com/abx/features.html#index";
+
+    /**
+     * Feature which writes a CRC-32 checksum of documents started by future
+     * calls to {@link #setOutput(OutputStream, String)}, allowing parsers to
+     * detect truncated or corrupted documents.
+     * <p>
+     * The checksum is accumulated as data is written, and covers every byte
+     * from the start of the document through the {@link #END_DOCUMENT} token,
+     * where it's then written as an {@code int}. Its presence is signaled by
+     * writing the {@link #START_DOCUMENT} token with a type of
+     * {@link #TYPE_BOOLEAN_TRUE}, so callers must use
+     * {@link #startDocument(String, Boolean)}. When compression is enabled, the
+     * checksum covers the uncompressed document.
+     * <p>
+     * Documents written with this feature enabled remain readable by all
+     * parsers, which ignore the type of the {@link #START_DOCUMENT} token and
+     * any data after the {@link #END_DOCUMENT} token.
+     */
+    public static final String FEATURE_CHECKSUM =
+            "http://android.com/abx/features.html#checksum";
+
     private FastDataOutput mOut;
 
+    private boolean mVarint;
+    private boolean mVarintActive;
+    private boolean mCompression;
+    private boolean mIndex;
+    private boolean mChecksum;
+
+    /**
+     * Whether a checksum is being accumulated for the current document, and
+     * whether it's been announced by the {@link #START_DOCUMENT} token.
+     */
+    private boolean mChecksumActive;
+    private boolean mChecksumAnnounced;
+
+    private Executor mOutputExecutor;
+
+    /**
+     * When writing a compressed document, the stream which compresses the
+     * output of {@link #mOut}. Retained across documents so that its
+     * {@link Deflater} and block buffers are reused.
+     */
+    private BlockDeflaterOutputStream mDeflater;
+
+    private int mProtocolVersion = 0;
+    private String[] mStringTable;
+
     /**
      * Stack of tags which are currently active via {@link #startTag} and which
      * haven't been terminated via {@link #endTag}.
@@ -99,6 +266,14 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
     private int mTagCount = 0;
     private String[] mTagNames;
 
+    /**
+     * When writing an index, pairs of offsets and interned string counts
+     * recorded at the start and end of each child of the root element.
+     */
+    private int mIndexCount = 0;
+    private long[] mIndexOffsets;
+    private int[] mIndexStringRefs;
+
     /**
      * Write the given token and optional {@link String} into our buffer.
      */
@@ -111,17 +286,191 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
         }
     }
 
+    /**
+     * Write the given text as one or more consecutive tokens, splitting values
+     * whose encoding exceeds the {@code 65,535} byte limit of a single token.
+     * Parsers merge consecutive text tokens back into a single event from
+     * {@link XmlPullParser#next()}, while {@link XmlPullParser#nextToken()}
+     * reports each chunk, allowing callers to stream very large values.
+     */
+    private void writeTextToken(int token, @Nullable String text) throws IOException {
+        // Fast path for values which can never exceed the limit
+        if (text == null || text.length() <= MAX_UNSIGNED_SHORT / 3) {
+            writeToken(token, text);
+            return;
+        }
+
+        final int len = text.length();
+        int start = 0;
+        do {
+            final int end = nextTextChunk(text, start);
+            writeToken(token, (start == 0 && end == len) ? text : text.substring(start, end));
+            start = end;
+        } while (start < len);
+    }
+
+    /**
+     * Return the end of the longest run of characters starting at the given
+     * index whose modified UTF-8 encoding fits in a single token, never
+     * splitting a surrogate pair.
+     */
+    static int nextTextChunk(@NonNull String text, int start) {
+        final int len = text.length();
+        int bytes = 0;
+        int i = start;
+        while (i < len) {
+            final char c = text.charAt(i);
+            final int size = (c != 0 && c <= 0x7f) ? 1 : (c <= 0x7ff) ? 2 : 3;
+            if (bytes + size > MAX_UNSIGNED_SHORT) {
+                if (Character.isLowSurrogate(c) && i - 1 > start
+                        && Character.isHighSurrogate(text.charAt(i - 1))) {
+                    i--;
+                }
+                break;
+            }
+            bytes += size;
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Write the given {@link String} using the interning scheme of our
+     * current protocol version.
+     */
+    private void writeInternedUTF(@NonNull String s) throws IOException {
+        if (mProtocolVersion == 0) {
+            mOut.writeInternedUTF(s);
+        } else {
+            mOut.writeVarInternedUTF(s);
+        }
+    }
+
+    /**
+     * Select the version of the wire protocol used for documents started by
+     * future calls to {@link #setOutput(OutputStream, String)}. Defaults to
+     * version 0, which is understood by all parsers.
+     *
+     * @see #PROTOCOL_MAGIC_VERSION_0
+     * @see #PROTOCOL_MAGIC_VERSION_1
+     */
+    public void setProtocolVersion(int version) {
+        if (version != 0 && version != 1) {
+            throw new IllegalArgumentException("Unsupported protocol version " + version);
+        }
+        mProtocolVersion = version;
+    }
+
+    /**
+     * Define values to be written up front in the document-level string table
+     * of future version 1 documents, such as the tag and attribute names a
+     * caller expects to write. Every later occurrence of these values is then
+     * written as a compact reference.
+     *
+     * @see #setProtocolVersion(int)
+     */
+    public void setStringTable(@Nullable String[] strings) {
+        mStringTable = strings;
+    }
+
+    /**
+     * Define an {@link Executor} used to write the output of documents started
+     * by future calls to {@link #setOutput(OutputStream, String)} in the
+     * background, overlapping serialization with blocking I/O. When
+     * compression is enabled, compression is also moved to the background.
+     */
+    public void setOutputExecutor(@Nullable Executor executor) {
+        mOutputExecutor = executor;
+    }
+
     @Override
     public void setOutput(@NonNull OutputStream os, @Nullable String encoding) throws IOException {
         if (encoding != null && !StandardCharsets.UTF_8.name().equalsIgnoreCase(encoding)) {
             throw new UnsupportedOperationException();
         }
+        checkFeatures();
+
+        if (mCompression) {
+            os.write(PROTOCOL_MAGIC_COMPRESSED);
+            if (mDeflater == null) {
+                mDeflater = new BlockDeflaterOutputStream();
+            }
+            mDeflater.setOutput(os);
+            os = mDeflater;
+        }
+
+        if (mOutputExecutor != null) {
+            mOut = obtainFastDataOutput(os, mOutputExecutor);
+        } else {
+            mOut = obtainFastDataOutput(os);
+        }
+        writeHeader();
+    }
 
-        mOut = obtainFastDataOutput(os);
-        mOut.write(PROTOCOL_MAGIC_VERSION_0);
+    /**
+     * Set the output destination for the serializer to the given
+     * {@link WritableByteChannel}, which must be in blocking mode.
+     * <p>
+     * This avoids copying data through an intermediate stream, and is the
+     * preferred way to write large documents to disk.
+     */
+    public void setOutput(@NonNull WritableByteChannel channel) throws IOException {
+        checkFeatures();
+        if (mCompression) {
+            // Compressed blocks are assembled in memory and then written as a
+            // stream, so there's nothing to gain from using the channel directly
+            setOutput(Channels.newOutputStream(channel), null);
+            return;
+        }
+
+        mOut = obtainFastDataOutput(channel);
+        writeHeader();
+    }
+
+    /**
+     * Verify that our enabled features can be combined with each other and
+     * with our protocol version, before anything is written.
+     */
+    private void checkFeatures() {
+        if (mVarint && mProtocolVersion == 0) {
+            throw new IllegalStateException("FEATURE_VARINT requires protocol version 1");
+        }
+        if (mIndex && mCompression) throw illegalFeatures();
+    }
+
+    /**
+     * Write the document header to the freshly configured {@link #mOut} and
+     * reset our serializing state.
+     */
+    private void writeHeader() throws IOException {
+        mVarintActive = mVarint;
+        mChecksumActive = mChecksum;
+        mChecksumAnnounced = false;
+        if (mChecksumActive) {
+            mOut.setChecksum(new CRC32());
+        }
+        mOut.setStringRefOffsetsTracked(mIndex);
+
+        if (mProtocolVersion == 0) {
+            mOut.write(PROTOCOL_MAGIC_VERSION_0);
+        } else {
+            mOut.write(PROTOCOL_MAGIC_VERSION_1);
+            mOut.writeVarInt(mVarint ? FLAG_VARINT : 0);
+            mOut.writeVarInternedUTFTable(
+                    (mStringTable != null) ? mStringTable : new String[0]);
+        }
 
         mTagCount = 0;
         mTagNames = new String[8];
+
+        mIndexCount = 0;
+        if (mIndex) {
+            mIndexOffsets = new long[16];
+            mIndexStringRefs = new int[16];
+        } else {
+            mIndexOffsets = null;
+            mIndexStringRefs = null;
+        }
     }
 
     @NonNull
@@ -129,6 +478,17 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
         return FastDataOutput.obtain(os);
     }
 
+    @NonNull
+    protected FastDataOutput obtainFastDataOutput(@NonNull OutputStream os,
+            @NonNull Executor executor) {
+        return FastDataOutput.obtain(os, executor);
+    }
+
+    @NonNull
+    protected FastDataOutput obtainFastDataOutput(@NonNull WritableByteChannel channel) {
+        return FastDataOutput.obtain(channel);
+    }
+
     @Override
     public void setOutput(Writer writer) {
         throw new UnsupportedOperationException();
@@ -150,16 +510,30 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
         if (standalone != null && !standalone) {
             throw new UnsupportedOperationException();
         }
-        mOut.writeByte(START_DOCUMENT | TYPE_NULL);
+        if (mChecksumActive) {
+            mOut.writeByte(START_DOCUMENT | TYPE_BOOLEAN_TRUE);
+            mChecksumAnnounced = true;
+        } else {
+            mOut.writeByte(START_DOCUMENT | TYPE_NULL);
+        }
     }
 
     @Override
     public void endDocument() throws IOException {
         mOut.writeByte(END_DOCUMENT | TYPE_NULL);
+        if (mChecksumAnnounced) {
+            mOut.writeInt((int) mOut.getChecksum());
+        }
+        if (mIndexOffsets != null) {
+            writeIndex();
+        }
         flush();
 
         mOut.release();
         mOut = null;
+        if (mDeflater != null) {
+            mDeflater.release();
+        }
     }
 
     @Override
@@ -185,8 +559,11 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
             mTagNames = Arrays.copyOf(mTagNames, mTagCount + (mTagCount >> 1));
         }
         mTagNames[mTagCount++] = name;
+        if (mIndexOffsets != null && mTagCount == 2) {
+            recordIndex();
+        }
         mOut.writeByte(START_TAG | TYPE_STRING_INTERNED);
-        mOut.writeInternedUTF(name);
+        writeInternedUTF(name);
         return this;
     }
 
@@ -195,15 +572,59 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
         mTagCount--;
         mOut.writeByte(END_TAG | TYPE_STRING_INTERNED);
-        mOut.writeInternedUTF(name);
+        writeInternedUTF(name);
+        if (mIndexOffsets != null && mTagCount == 1) {
+            recordIndex();
+        }
         return this;
     }
 
+    /**
+     * Record our current offset and interned string count, which alternate
+     * between the start and end of each child of the root element.
+     */
+    private void recordIndex() {
+        if (mIndexCount == mIndexOffsets.length) {
+            mIndexOffsets = Arrays.copyOf(mIndexOffsets, mIndexCount << 1);
+            mIndexStringRefs = Arrays.copyOf(mIndexStringRefs, mIndexCount << 1);
+        }
+        mIndexOffsets[mIndexCount] = mOut.size();
+        mIndexStringRefs[mIndexCount] = mOut.getStringRefCount();
+        mIndexCount++;
+    }
+
+    /**
+     * Write the index recorded for the current document, as described by
+     * {@link #PROTOCOL_MAGIC_INDEX}.
+     */
+    private void writeIndex() throws IOException {
+        final long offset = mOut.size();
+
+        // Ignore any trailing child which was never ended
+        final int count = mIndexCount >> 1;
+        mOut.writeVarInt(count);
+        for (int i = 0; i < count << 1; i++) {
+            mOut.writeVarLong(mIndexOffsets[i]);
+            mOut.writeVarInt(mIndexStringRefs[i]);
+        }
+
+        final long[] stringOffsets = mOut.getStringRefOffsets();
+        mOut.writeVarInt(stringOffsets.length);
+        long last = 0;
+        for (long stringOffset : stringOffsets) {
+            mOut.writeVarLong(stringOffset - last);
+            last = stringOffset;
+        }
+
+        mOut.writeLong(offset);
+        mOut.write(PROTOCOL_MAGIC_INDEX);
+    }
+
     @Override
     public XmlSerializer attribute(String namespace, String name, String value) throws IOException {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
         mOut.writeByte(ATTRIBUTE | TYPE_STRING);
-        mOut.writeInternedUTF(name);
+        writeInternedUTF(name);
         mOut.writeUTF(value);
         return this;
     }
@@ -213,8 +634,8 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
             throws IOException {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
         mOut.writeByte(ATTRIBUTE | TYPE_STRING_INTERNED);
-        mOut.writeInternedUTF(name);
-        mOut.writeInternedUTF(value);
+        writeInternedUTF(name);
+        writeInternedUTF(value);
         return this;
     }
 
@@ -223,7 +644,7 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
             throws IOException {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
         mOut.writeByte(ATTRIBUTE | TYPE_BYTES_HEX);
-        mOut.writeInternedUTF(name);
+        writeInternedUTF(name);
         mOut.writeShort(value.length);
         mOut.write(value);
         return this;
@@ -234,7 +655,7 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
             throws IOException {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
         mOut.writeByte(ATTRIBUTE | TYPE_BYTES_BASE64);
-        mOut.writeInternedUTF(name);
+        writeInternedUTF(name);
         mOut.writeShort(value.length);
         mOut.write(value);
         return this;
@@ -245,8 +666,12 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
             throws IOException {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
         mOut.writeByte(ATTRIBUTE | TYPE_INT);
-        mOut.writeInternedUTF(name);
-        mOut.writeInt(value);
+        writeInternedUTF(name);
+        if (mVarintActive) {
+            mOut.writeVarInt((value << 1) ^ (value >> 31));
+        } else {
+            mOut.writeInt(value);
+        }
         return this;
     }
 
@@ -255,7 +680,7 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
             throws IOException {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
         mOut.writeByte(ATTRIBUTE | TYPE_INT_HEX);
-        mOut.writeInternedUTF(name);
+        writeInternedUTF(name);
         mOut.writeInt(value);
         return this;
     }
@@ -265,8 +690,12 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
             throws IOException {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
         mOut.writeByte(ATTRIBUTE | TYPE_LONG);
-        mOut.writeInternedUTF(name);
-        mOut.writeLong(value);
+        writeInternedUTF(name);
+        if (mVarintActive) {
+            mOut.writeVarLong((value << 1) ^ (value >> 63));
+        } else {
+            mOut.writeLong(value);
+        }
         return this;
     }
 
@@ -275,7 +704,7 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
             throws IOException {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
         mOut.writeByte(ATTRIBUTE | TYPE_LONG_HEX);
-        mOut.writeInternedUTF(name);
+        writeInternedUTF(name);
         mOut.writeLong(value);
         return this;
     }
@@ -285,7 +714,7 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
             throws IOException {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
         mOut.writeByte(ATTRIBUTE | TYPE_FLOAT);
-        mOut.writeInternedUTF(name);
+        writeInternedUTF(name);
         mOut.writeFloat(value);
         return this;
     }
@@ -295,7 +724,7 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
             throws IOException {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
         mOut.writeByte(ATTRIBUTE | TYPE_DOUBLE);
-        mOut.writeInternedUTF(name);
+        writeInternedUTF(name);
         mOut.writeDouble(value);
         return this;
     }
@@ -306,29 +735,29 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
         if (namespace != null && !namespace.isEmpty()) throw illegalNamespace();
         if (value) {
             mOut.writeByte(ATTRIBUTE | TYPE_BOOLEAN_TRUE);
-            mOut.writeInternedUTF(name);
+            writeInternedUTF(name);
         } else {
             mOut.writeByte(ATTRIBUTE | TYPE_BOOLEAN_FALSE);
-            mOut.writeInternedUTF(name);
+            writeInternedUTF(name);
         }
         return this;
     }
 
     @Override
     public XmlSerializer text(char[] buf, int start, int len) throws IOException {
-        writeToken(TEXT, new String(buf, start, len));
+        writeTextToken(TEXT, new String(buf, start, len));
         return this;
     }
 
     @Override
     public XmlSerializer text(String text) throws IOException {
-        writeToken(TEXT, text);
+        writeTextToken(TEXT, text);
         return this;
     }
 
     @Override
     public void cdsect(String text) throws IOException {
-        writeToken(CDSECT, text);
+        writeTextToken(CDSECT, text);
     }
 
     @Override
@@ -362,13 +791,43 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
         if ("http://xmlpull.org/v1/doc/features.html#indent-output".equals(name)) {
             return;
         }
-        // Features are not supported
+        if (FEATURE_VARINT.equals(name)) {
+            mVarint = state;
+            return;
+        }
+        if (FEATURE_COMPRESSION.equals(name)) {
+            if (state && mIndex) throw illegalFeatures();
+            mCompression = state;
+            return;
+        }
+        if (FEATURE_INDEX.equals(name)) {
+            if (state && mCompression) throw illegalFeatures();
+            mIndex = state;
+            return;
+        }
+        if (FEATURE_CHECKSUM.equals(name)) {
+            mChecksum = state;
+            return;
+        }
+        // Other features are not supported
         throw new UnsupportedOperationException();
     }
 
     @Override
     public boolean getFeature(String name) {
-        // Features are not supported
+        if (FEATURE_VARINT.equals(name)) {
+            return mVarint;
+        }
+        if (FEATURE_COMPRESSION.equals(name)) {
+            return mCompression;
+        }
+        if (FEATURE_INDEX.equals(name)) {
+            return mIndex;
+        }
+        if (FEATURE_CHECKSUM.equals(name)) {
+            return mChecksum;
+        }
+        // Other features are not supported
         throw new UnsupportedOperationException();
     }
 
@@ -399,4 +858,97 @@ public class BinaryXmlSerializer implements TypedXmlSerializer {
     private static IllegalArgumentException illegalNamespace() {
         throw new IllegalArgumentException("Namespaces are not supported");
     }
+
+    private static IllegalStateException illegalFeatures() {
+        throw new IllegalStateException(
+                "FEATURE_INDEX can't be combined with FEATURE_COMPRESSION");
+    }
+
+    /**
+     * Stream which compresses the data written to it in independent blocks
+     * of up to {@link #BLOCK_SIZE} bytes, as described by
+     * {@link #PROTOCOL_MAGIC_COMPRESSED}. Blocks which don't benefit from
+     * compression are stored as-is.
+     */
+    private static class BlockDeflaterOutputStream extends OutputStream {
+        private OutputStream mOut;
+        private final Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final byte[] mBuffer = new byte[BLOCK_SIZE];
+        private final byte[] mCompressed = new byte[BLOCK_SIZE];
+        private final byte[] mHeader = new byte[9];
+        private int mBufferPos;
+
+        /**
+         * Begin writing blocks to the given raw output, discarding anything
+         * left behind by an abandoned document.
+         */
+        public void setOutput(@NonNull OutputStream out) {
+            mOut = out;
+            mBufferPos = 0;
+        }
+
+        /**
+         * Release the raw output, retaining everything else for reuse. Pending
+         * data must already have been written by {@link #flush()}.
+         */
+        public void release() {
+            mOut = null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mBufferPos == BLOCK_SIZE) writeBlock();
+            mBuffer[mBufferPos++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (mBufferPos == BLOCK_SIZE) writeBlock();
+                final int count = Math.min(len, BLOCK_SIZE - mBufferPos);
+                System.arraycopy(b, off, mBuffer, mBufferPos, count);
+                mBufferPos += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (mBufferPos > 0) writeBlock();
+            mOut.flush();
+        }
+
+        private void writeBlock() throws IOException {
+            mDeflater.reset();
+            mDeflater.setInput(mBuffer, 0, mBufferPos);
+            mDeflater.finish();
+            int count = 0;
+            while (!mDeflater.finished() && count < mCompressed.length) {
+                count += mDeflater.deflate(mCompressed, count, mCompressed.length - count);
+            }
+
+            if (mDeflater.finished() && count < mBufferPos) {
+                writeHeader(BLOCK_DEFLATE, mBufferPos, count);
+                mOut.write(mCompressed, 0, count);
+            } else {
+                writeHeader(BLOCK_STORED, mBufferPos, mBufferPos);
+                mOut.write(mBuffer, 0, mBufferPos);
+            }
+            mBufferPos = 0;
+        }
+
+        private void writeHeader(int type, int rawLen, int storedLen) throws IOException {
+            mHeader[0] = (byte) type;
+            mHeader[1] = (byte) (rawLen >> 24);
+            mHeader[2] = (byte) (rawLen >> 16);
+            mHeader[3] = (byte) (rawLen >> 8);
+            mHeader[4] = (byte) rawLen;
+            mHeader[5] = (byte) (storedLen >> 24);
+            mHeader[6] = (byte) (storedLen >> 16);
+            mHeader[7] = (byte) (storedLen >> 8);
+            mHeader[8] = (byte) storedLen;
+            mOut.write(mHeader);
+        }
+    }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils;
+
+import android.annotation.NonNull;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts complete documents between binary XML and text XML, such as for
+ * debugging dumps or for migrating persisted state between formats.
+ * <p>
+ * Binary XML is converted into UTF-8 text which is byte-for-byte identical to
+ * what {@code com.android.internal.util.FastXmlSerializer} writes when given
+ * the same events, but without driving a generic serializer: each token is
+ * encoded straight into an output buffer, typed attribute values are
+ * formatted directly from their binary representation, and string and
+ * {@code byte[]} attribute values are copied without first being decoded into
+ * a {@link String} or array.
+ * <p>
+ * Text XML carries no data types, so its attribute values are written as
+ * strings, which is also what copying events through
+ * {@link BinaryXmlSerializer} would do.
+ * <p>
+ * Instances retain their internal buffers across documents, and aren't
+ * thread-safe.
+ */
+public final class BinaryXmlTranscoder {
+    private final BinaryXmlPullParser mParser = new BinaryXmlPullParser();
+    private final XmlTextWriter mWriter = new XmlTextWriter();
+
+    /**
+     * Indent nested tags of text XML written by {@link #binaryToText}, as
+     * with the {@code http://xmlpull.org/v1/doc/features.html#indent-output}
+     * feature of {@code FastXmlSerializer}.
+     */
+    public void setIndentOutput(boolean indent) {
+        mWriter.setIndent(indent);
+    }
+
+    /**
+     * Convert the binary XML document read from the given stream into text
+     * XML written to the given stream. Neither stream is closed.
+     * <p>
+     * The XML declaration always marks the document as standalone, since
+     * that's the only kind of document binary XML supports.
+     */
+    public void binaryToText(@NonNull InputStream in, @NonNull OutputStream out)
+            throws IOException, XmlPullParserException {
+        final BinaryXmlPullParser parser = mParser;
+        final XmlTextWriter writer = mWriter;
+        // Raw values are written out without ever being decoded
+        parser.setFeature(BinaryXmlPullParser.FEATURE_LAZY_ATTRIBUTES, true);
+        parser.setRawText(true);
+        parser.setInput(in, null);
+        writer.setOutput(out);
+        try {
+            writer.startDocument();
+            while (true) {
+                switch (parser.nextToken()) {
+                    case XmlPullParser.START_TAG:
+                        writer.startTag(parser.getName());
+                        final int count = parser.getAttributeCount();
+                        for (int i = 0; i < count; i++) {
+                            parser.copyAttributeText(i, writer);
+                        }
+                        break;
+                    case XmlPullParser.END_TAG:
+                        writer.endTag(parser.getName());
+                        break;
+                    case XmlPullParser.TEXT:
+                        parser.copyText(writer);
+                        break;
+                    case XmlPullParser.CDSECT:
+                        writer.cdsect(parser.getText());
+                        break;
+                    case XmlPullParser.ENTITY_REF:
+                        writer.entityRef(parser.getName());
+                        break;
+                    case XmlPullParser.IGNORABLE_WHITESPACE:
+                        writer.ignorableWhitespace(parser.getText());
+                        break;
+                    case XmlPullParser.PROCESSING_INSTRUCTION:
+                        writer.processingInstruction(parser.getText());
+                        break;
+                    case XmlPullParser.COMMENT:
+                        writer.comment(parser.getText());
+                        break;
+                    case XmlPullParser.DOCDECL:
+                        writer.docdecl(parser.getText());
+                        break;
+                    case XmlPullParser.END_DOCUMENT:
+                        writer.endDocument();
+                        return;
+                    default:
+                        // Declaration for START_DOCUMENT already written above
+                        break;
+                }
+            }
+        } finally {
+            parser.reset();
+            writer.release();
+        }
+    }
+
+    /**
+     * Convert the text XML document read by the given parser, which must be
+     * positioned at {@link XmlPullParser#START_DOCUMENT}, into binary XML
+     * written by the given serializer, which must already have its output
+     * set.
+     * <p>
+     * Entity references are written as the text they resolve to, since
+     * {@link BinaryXmlPullParser#next()} only merges them into adjacent text.
+     * Whitespace outside of the root element is dropped, since
+     * {@link #binaryToText} always writes its own line breaks there.
+     */
+    public void textToBinary(@NonNull XmlPullParser in, @NonNull BinaryXmlSerializer out)
+            throws IOException, XmlPullParserException {
+        out.startDocument(null, true);
+        while (true) {
+            switch (in.nextToken()) {
+                case XmlPullParser.START_TAG:
+                    out.startTag(null, in.getName());
+                    final int count = in.getAttributeCount();
+                    for (int i = 0; i < count; i++) {
+                        out.attribute(null, in.getAttributeName(i), in.getAttributeValue(i));
+                    }
+                    break;
+                case XmlPullParser.END_TAG:
+                    out.endTag(null, in.getName());
+                    break;
+                case XmlPullParser.TEXT:
+                    out.text(in.getText());
+                    break;
+                case XmlPullParser.CDSECT:
+                    out.cdsect(in.getText());
+                    break;
+                case XmlPullParser.ENTITY_REF:
+                    if (in.getText() != null) {
+                        out.text(in.getText());
+                    } else {
+                        out.entityRef(in.getName());
+                    }
+                    break;
+                case XmlPullParser.PROCESSING_INSTRUCTION:
+                    out.processingInstruction(in.getText());
+                    break;
+                case XmlPullParser.COMMENT:
+                    out.comment(in.getText());
+                    break;
+                case XmlPullParser.DOCDECL:
+                    out.docdecl(in.getText());
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    out.endDocument();
+                    return;
+                default:
+                    // Quietly dropped, as described above
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.modules.utils;
+
+import android.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Implementation of {@link FastDataOutput} which drains directly into a
+ * {@link WritableByteChannel}.
+ */
+class ChannelFastDataOutput extends FastDataOutput {
+    /**
+     * Small pool of released instances which are recycled by
+     * {@link #obtainChannel(WritableByteChannel)}, kept apart from the pool of
+     * {@link FastDataOutput} since each pool only hands out its own type.
+     */
+    private static final int POOL_SIZE = 4;
+    private static final AtomicReferenceArray<ChannelFastDataOutput> sPool =
+            new AtomicReferenceArray<>(POOL_SIZE);
+
+    private WritableByteChannel mChannel;
+
+    /**
+     * View of our buffer, reused for every drain to avoid wrapping it again.
+     */
+    private final ByteBuffer mBufferView;
+
+    ChannelFastDataOutput(@NonNull WritableByteChannel channel, int bufferSize) {
+        super(bufferSize);
+        mChannel = Objects.requireNonNull(channel);
+        mBufferView = ByteBuffer.wrap(mBuffer);
+    }
+
+    static @NonNull ChannelFastDataOutput obtainChannel(@NonNull WritableByteChannel channel) {
+        ChannelFastDataOutput instance = null;
+        for (int i = 0; i < POOL_SIZE && instance == null; i++) {
+            final ChannelFastDataOutput candidate = sPool.get(i);
+            if (candidate != null && sPool.compareAndSet(i, candidate, null)) {
+                instance = candidate;
+                instance.setChannel(channel);
+            }
+        }
+        if (instance == null) {
+            instance = new ChannelFastDataOutput(channel, DEFAULT_BUFFER_SIZE);
+        }
+        return instance;
+    }
+
+    @Override
+    public void release() {
+        // Only recycle instances that were actually in use, so that a
+        // duplicate release can never hand the same instance out twice
+        final boolean recycle = (mChannel != null) && (mBufferCap == DEFAULT_BUFFER_SIZE);
+
+        super.release();
+        mChannel = null;
+
+        if (recycle) {
+            for (int i = 0; i < POOL_SIZE; i++) {
+                if (sPool.compareAndSet(i, null, this)) break;
+            }
+        }
+    }
+
+    /**
+     * Re-initializes the object for the new channel.
+     */
+    private void setChannel(@NonNull WritableByteChannel channel) {
+        if (mChannel != null) {
+            throw new IllegalStateException("setChannel() called before calling release()");
+        }
+        mChannel = Objects.requireNonNull(channel);
+    }
+
+    @Override
+    protected void setOutput(@NonNull OutputStream out) {
+        // Channel instances are bound to a single channel
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void drain() throws IOException {
+        if (mBufferPos > 0) {
+            mBufferView.clear();
+            mBufferView.limit(mBufferPos);
+            while (mBufferView.hasRemaining()) {
+                mChannel.write(mBufferView);
+            }
+            onWritten(mBuffer, 0, mBufferPos);
+            mBufferPos = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Channels have no buffering of their own to flush
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+        release();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (mBufferCap >= len) {
+            super.write(b, off, len);
+            return;
+        }
+
+        final ByteBuffer payload = ByteBuffer.wrap(b, off, len);
+        if (mChannel instanceof GatheringByteChannel) {
+            // Write buffered data and the payload together, saving a syscall
+            final GatheringByteChannel channel = (GatheringByteChannel) mChannel;
+            mBufferView.clear();
+            mBufferView.limit(mBufferPos);
+            final ByteBuffer[] srcs = new ByteBuffer[] { mBufferView, payload };
+            while (payload.hasRemaining()) {
+                channel.write(srcs);
+            }
+            onWritten(mBuffer, 0, mBufferPos);
+            mBufferPos = 0;
+        } else {
+            drain();
+            while (payload.hasRemaining()) {
+                mChannel.write(payload);
+            }
+        }
+        onWritten(b, off, len);
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.modules.utils;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 
 import java.io.BufferedInputStream;
 import java.io.Closeable;
@@ -25,8 +26,12 @@ import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.Checksum;
 
 /**
  * Optimized implementation of {@link DataInput} which buffers data in memory
@@ -40,6 +45,15 @@ public class FastDataInput implements DataInput, Closeable {
 
     protected static final int DEFAULT_BUFFER_SIZE = 32_768;
 
+    /**
+     * Small pool of released instances which are recycled by
+     * {@link #obtain(InputStream)}, avoiding a fresh buffer allocation for
+     * every document that is parsed.
+     */
+    private static final int POOL_SIZE = 4;
+    private static final AtomicReferenceArray<FastDataInput> sPool =
+            new AtomicReferenceArray<>(POOL_SIZE);
+
     protected final byte[] mBuffer;
     protected final int mBufferCap;
 
@@ -47,11 +61,41 @@ public class FastDataInput implements DataInput, Closeable {
     protected int mBufferPos;
     protected int mBufferLim;
 
+    /**
+     * Optional checksum which is updated with every byte as it's consumed
+     * from our buffer, where {@link #mChecksumPos} marks the first consumed
+     * byte which hasn't been accumulated yet. Bytes which have been read
+     * ahead into our buffer are only accumulated once they're consumed.
+     */
+    private Checksum mChecksum;
+    private int mChecksumPos;
+
+    /**
+     * Big-endian view of {@link #mBuffer} used to copy runs of primitive
+     * values, created lazily.
+     */
+    private ByteBuffer mArrayView;
+
     /**
      * Values that have been "interned" by {@link #readInternedUTF()}.
      */
+    private static final int DEFAULT_STRING_REFS_CAPACITY = 32;
+    private static final int MAX_RETAINED_STRING_REFS_CAPACITY = 2_048;
+
     private int mStringRefCount = 0;
-    private String[] mStringRefs = new String[32];
+    private String[] mStringRefs = new String[DEFAULT_STRING_REFS_CAPACITY];
+
+    /**
+     * Scratch buffers reused across {@link #readUTF()} calls, allocated lazily
+     * and grown as needed.
+     */
+    private char[] mCharBuffer;
+    private byte[] mOverflowBuffer;
+
+    /**
+     * Tracks instances handed out by {@link #obtain} until they're released.
+     */
+    private FastDataLeakDetector.Tracker mLeakTracker;
 
     public FastDataInput(@NonNull InputStream in, int bufferSize) {
         mIn = Objects.requireNonNull(in);
@@ -63,6 +107,16 @@ public class FastDataInput implements DataInput, Closeable {
         mBufferCap = mBuffer.length;
     }
 
+    /**
+     * Constructor for subclasses which read directly from their own backing
+     * storage instead of buffering an {@link InputStream} through
+     * {@link #mBuffer}.
+     */
+    FastDataInput() {
+        mBuffer = new byte[0];
+        mBufferCap = 0;
+    }
+
     /**
      * Obtain a {@link FastDataInput} configured with the given
      * {@link InputStream} and which encodes large code-points using 3-byte
@@ -73,7 +127,34 @@ public class FastDataInput implements DataInput, Closeable {
      * sequences.
      */
     public static FastDataInput obtain(@NonNull InputStream in) {
-        return new FastDataInput(in, DEFAULT_BUFFER_SIZE);
+        FastDataInput instance = null;
+        for (int i = 0; i < POOL_SIZE && instance == null; i++) {
+            final FastDataInput candidate = sPool.get(i);
+            if (candidate != null && sPool.compareAndSet(i, candidate, null)) {
+                instance = candidate;
+                instance.setInput(in);
+            }
+        }
+        if (instance == null) {
+            instance = new FastDataInput(in, DEFAULT_BUFFER_SIZE);
+        }
+        instance.mLeakTracker = FastDataLeakDetector.track(instance);
+        return instance;
+    }
+
+    /**
+     * Obtain a {@link FastDataInput} which reads directly from a read-only
+     * memory mapping of the remaining contents of the given
+     * {@link FileChannel}, starting at its current position.
+     * <p>
+     * Unlike {@link #obtain(InputStream)}, no data is copied through an
+     * intermediate buffer, which is well suited to parsing large files. The
+     * position of the channel itself is not modified.
+     */
+    public static FastDataInput obtain(@NonNull FileChannel channel) throws IOException {
+        final FastDataInput instance = new MappedFastDataInput(channel);
+        instance.mLeakTracker = FastDataLeakDetector.track(instance);
+        return instance;
     }
 
     /**
@@ -81,10 +162,26 @@ public class FastDataInput implements DataInput, Closeable {
      * interact with the object after releasing it.
      */
     public void release() {
+        // Only recycle instances that were actually in use, so that a
+        // duplicate release can never hand the same instance out twice
+        final boolean recycle = (mIn != null) && (getClass() == FastDataInput.class)
+                && (mBufferCap == DEFAULT_BUFFER_SIZE);
+
+        FastDataLeakDetector.untrack(mLeakTracker);
+        mLeakTracker = null;
         mIn = null;
         mBufferPos = 0;
         mBufferLim = 0;
-        mStringRefCount = 0;
+        mChecksum = null;
+        mChecksumPos = 0;
+        clearStringRefs();
+        mOverflowBuffer = null;
+
+        if (recycle) {
+            for (int i = 0; i < POOL_SIZE; i++) {
+                if (sPool.compareAndSet(i, null, this)) break;
+            }
+        }
     }
 
     public byte[] newByteArray(int bufferSize) {
@@ -102,14 +199,18 @@ public class FastDataInput implements DataInput, Closeable {
         mIn = Objects.requireNonNull(in);
         mBufferPos = 0;
         mBufferLim = 0;
-        mStringRefCount = 0;
+        mChecksum = null;
+        mChecksumPos = 0;
+        clearStringRefs();
     }
 
     protected void fill(int need) throws IOException {
+        updateChecksum();
         final int remain = mBufferLim - mBufferPos;
         System.arraycopy(mBuffer, mBufferPos, mBuffer, 0, remain);
         mBufferPos = 0;
         mBufferLim = remain;
+        mChecksumPos = 0;
         need -= remain;
 
         while (need > 0) {
@@ -129,6 +230,31 @@ public class FastDataInput implements DataInput, Closeable {
         release();
     }
 
+    /**
+     * Begin accumulating the given checksum over all bytes consumed after
+     * this point, or stop accumulating when {@code null}.
+     */
+    void setChecksum(@Nullable Checksum checksum) {
+        mChecksum = checksum;
+        mChecksumPos = mBufferPos;
+    }
+
+    /**
+     * Return the current value of the checksum configured by
+     * {@link #setChecksum(Checksum)}, covering every byte consumed so far.
+     */
+    long getChecksum() {
+        updateChecksum();
+        return mChecksum.getValue();
+    }
+
+    private void updateChecksum() {
+        if (mChecksum != null && mBufferPos > mChecksumPos) {
+            mChecksum.update(mBuffer, mChecksumPos, mBufferPos - mChecksumPos);
+        }
+        mChecksumPos = mBufferPos;
+    }
+
     @Override
     public void readFully(byte[] b) throws IOException {
         readFully(b, 0, b.length);
@@ -148,12 +274,14 @@ public class FastDataInput implements DataInput, Closeable {
             mBufferPos += remain;
             off += remain;
             len -= remain;
+            updateChecksum();
 
             while (len > 0) {
                 int c = mIn.read(b, off, len);
                 if (c == -1) {
                     throw new EOFException();
                 } else {
+                    if (mChecksum != null) mChecksum.update(b, off, c);
                     off += c;
                     len -= c;
                 }
@@ -168,14 +296,35 @@ public class FastDataInput implements DataInput, Closeable {
         final int len = readUnsignedShort();
         if (mBufferCap > len) {
             if (mBufferLim - mBufferPos < len) fill(len);
-            final String res = ModifiedUtf8.decode(mBuffer, new char[len], mBufferPos, len);
+            final String res = decodeUTF(mBuffer, mBufferPos, len);
             mBufferPos += len;
             return res;
         } else {
-            final byte[] tmp = newByteArray(len + 1);
-            readFully(tmp, 0, len);
-            return ModifiedUtf8.decode(tmp, new char[len], 0, len);
+            if (mOverflowBuffer == null) {
+                mOverflowBuffer = newByteArray(MAX_UNSIGNED_SHORT);
+            }
+            readFully(mOverflowBuffer, 0, len);
+            return decodeUTF(mOverflowBuffer, 0, len);
+        }
+    }
+
+    /**
+     * Decode the given <i>modified UTF-8</i> bytes into a {@link String} via
+     * {@link ModifiedUtf8}, reusing our scratch {@code char[]} across calls.
+     */
+    private @NonNull String decodeUTF(byte[] buf, int offset, int len) throws IOException {
+        return ModifiedUtf8.decode(buf, obtainCharBuffer(len), offset, len);
+    }
+
+    /**
+     * Return a scratch {@code char[]} of at least the given length, which is
+     * only valid until the next call.
+     */
+    @NonNull char[] obtainCharBuffer(int len) {
+        if (mCharBuffer == null || mCharBuffer.length < len) {
+            mCharBuffer = new char[Math.max(len, 64)];
         }
+        return mCharBuffer;
     }
 
     /**
@@ -197,11 +346,7 @@ public class FastDataInput implements DataInput, Closeable {
             // We can only safely intern when we have remaining values; if we're
             // full we at least sent the string value above
             if (mStringRefCount < MAX_UNSIGNED_SHORT) {
-                if (mStringRefCount == mStringRefs.length) {
-                    mStringRefs = Arrays.copyOf(mStringRefs,
-                            mStringRefCount + (mStringRefCount >> 1));
-                }
-                mStringRefs[mStringRefCount++] = s;
+                appendStringRef(s);
             }
 
             return s;
@@ -214,6 +359,92 @@ public class FastDataInput implements DataInput, Closeable {
         }
     }
 
+    /**
+     * Read a {@link String} value which was canonicalized using a
+     * variable-length reference, which has no limit on the number of unique
+     * values that can be interned.
+     * <p>
+     * A reference of {@code 0} indicates a new value which follows inline,
+     * otherwise the reference is one greater than the index of a value
+     * interned earlier.
+     *
+     * @see FastDataOutput#writeVarInternedUTF(String)
+     */
+    public @NonNull String readVarInternedUTF() throws IOException {
+        final int ref = readVarInt();
+        if (ref == 0) {
+            final String s = readUTF();
+            appendStringRef(s);
+            return s;
+        } else {
+            if (ref < 0 || ref > mStringRefCount) {
+                throw new IOException("Invalid interned string reference " + ref + " for "
+                        + mStringRefCount + " interned strings");
+            }
+            return mStringRefs[ref - 1];
+        }
+    }
+
+    /**
+     * Read a table of values to be interned up front, ahead of any values
+     * read via {@link #readVarInternedUTF()}.
+     *
+     * @see FastDataOutput#writeVarInternedUTFTable(String[])
+     */
+    public void readVarInternedUTFTable() throws IOException {
+        final int count = readVarInt();
+        if (count < 0) {
+            throw new IOException("Invalid interned string table size " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            appendStringRef(readUTF());
+        }
+    }
+
+    /**
+     * Return the number of values interned so far.
+     */
+    int getStringRefCount() {
+        return mStringRefCount;
+    }
+
+    /**
+     * Reset our interned values to be the first {@code count} of the given
+     * values, which must be ordered by their reference. This is used when
+     * repositioning within a document, so that later references resolve as
+     * if all the skipped data had been read.
+     */
+    void setStringRefs(@NonNull String[] values, int count) {
+        if (count < mStringRefCount) {
+            Arrays.fill(mStringRefs, count, mStringRefCount, null);
+            mStringRefCount = count;
+        }
+        while (mStringRefCount < count) {
+            appendStringRef(values[mStringRefCount]);
+        }
+    }
+
+    /**
+     * Forget all interned values, retaining the table for reuse unless a
+     * document with unusually many unique values caused it to grow.
+     */
+    private void clearStringRefs() {
+        if (mStringRefs.length > MAX_RETAINED_STRING_REFS_CAPACITY) {
+            mStringRefs = new String[DEFAULT_STRING_REFS_CAPACITY];
+        } else {
+            Arrays.fill(mStringRefs, 0, mStringRefCount, null);
+        }
+        mStringRefCount = 0;
+    }
+
+    private void appendStringRef(@NonNull String s) {
+        if (mStringRefCount == mStringRefs.length) {
+            mStringRefs = Arrays.copyOf(mStringRefs,
+                    mStringRefCount + (mStringRefCount >> 1));
+        }
+        mStringRefs[mStringRefCount++] = s;
+    }
+
     @Override
     public boolean readBoolean() throws IOException {
         return readByte() != 0;
@@ -242,8 +473,9 @@ public class FastDataInput implements DataInput, Closeable {
     @Override
     public short readShort() throws IOException {
         if (mBufferLim - mBufferPos < 2) fill(2);
-        return (short) (((mBuffer[mBufferPos++] & 0xff) <<  8) |
-                        ((mBuffer[mBufferPos++] & 0xff) <<  0));
+        final int pos = mBufferPos;
+        mBufferPos = pos + 2;
+        return (short) getShort(mBuffer, pos);
     }
 
     @Override
@@ -259,24 +491,75 @@ public class FastDataInput implements DataInput, Closeable {
     @Override
     public int readInt() throws IOException {
         if (mBufferLim - mBufferPos < 4) fill(4);
-        return (((mBuffer[mBufferPos++] & 0xff) << 24) |
-                ((mBuffer[mBufferPos++] & 0xff) << 16) |
-                ((mBuffer[mBufferPos++] & 0xff) <<  8) |
-                ((mBuffer[mBufferPos++] & 0xff) <<  0));
+        final int pos = mBufferPos;
+        mBufferPos = pos + 4;
+        return getInt(mBuffer, pos);
     }
 
     @Override
     public long readLong() throws IOException {
         if (mBufferLim - mBufferPos < 8) fill(8);
-        int h = ((mBuffer[mBufferPos++] & 0xff) << 24) |
-                ((mBuffer[mBufferPos++] & 0xff) << 16) |
-                ((mBuffer[mBufferPos++] & 0xff) <<  8) |
-                ((mBuffer[mBufferPos++] & 0xff) <<  0);
-        int l = ((mBuffer[mBufferPos++] & 0xff) << 24) |
-                ((mBuffer[mBufferPos++] & 0xff) << 16) |
-                ((mBuffer[mBufferPos++] & 0xff) <<  8) |
-                ((mBuffer[mBufferPos++] & 0xff) <<  0);
-        return (((long) h) << 32L) | ((long) l) & 0xffffffffL;
+        final int pos = mBufferPos;
+        mBufferPos = pos + 8;
+        return (((long) getInt(mBuffer, pos)) << 32L)
+                | ((long) getInt(mBuffer, pos + 4)) & 0xffffffffL;
+    }
+
+    /**
+     * Decode a big-endian {@code short} from the given offset. All bytes are
+     * loaded at constant offsets from a single index, checking the furthest
+     * first, which lets compilers fold the remaining bounds checks and
+     * combine the loads.
+     */
+    static int getShort(byte[] b, int off) {
+        final int b1 = b[off + 1] & 0xff;
+        return ((b[off] & 0xff) << 8) | b1;
+    }
+
+    /**
+     * Decode a big-endian {@code int} from the given offset, using the same
+     * approach as {@link #getShort(byte[], int)}.
+     */
+    static int getInt(byte[] b, int off) {
+        final int b3 = b[off + 3] & 0xff;
+        return ((b[off] & 0xff) << 24)
+                | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8)
+                | b3;
+    }
+
+    /**
+     * Read an unsigned variable-length {@code int} encoded as LEB128, using
+     * between 1 and 5 bytes.
+     *
+     * @see FastDataOutput#writeVarInt(int)
+     */
+    public int readVarInt() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (mBufferLim - mBufferPos < 1) fill(1);
+            final byte b = mBuffer[mBufferPos++];
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) return result;
+        }
+        throw new IOException("Malformed variable-length int");
+    }
+
+    /**
+     * Read an unsigned variable-length {@code long} encoded as LEB128, using
+     * between 1 and 10 bytes.
+     *
+     * @see FastDataOutput#writeVarLong(long)
+     */
+    public long readVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (mBufferLim - mBufferPos < 1) fill(1);
+            final byte b = mBuffer[mBufferPos++];
+            result |= (long) (b & 0x7f) << shift;
+            if (b >= 0) return result;
+        }
+        throw new IOException("Malformed variable-length long");
     }
 
     @Override
@@ -289,10 +572,137 @@ public class FastDataInput implements DataInput, Closeable {
         return Double.longBitsToDouble(readLong());
     }
 
+    /**
+     * Read values to fill the given array, equivalent to calling
+     * {@link #readInt()} for each value.
+     */
+    public void readIntArray(@NonNull int[] value) throws IOException {
+        readIntArray(value, 0, value.length);
+    }
+
+    /**
+     * Read {@code len} values into the given array starting at {@code off},
+     * equivalent to calling {@link #readInt()} for each value, but copying
+     * entire runs out of our buffer at once.
+     */
+    public void readIntArray(@NonNull int[] value, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, value.length);
+        while (len > 0) {
+            final ByteBuffer view = obtainArrayView(Integer.BYTES);
+            final int count = Math.min(len, view.remaining() / Integer.BYTES);
+            view.asIntBuffer().get(value, off, count);
+            mBufferPos += count * Integer.BYTES;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Read values to fill the given array, equivalent to calling
+     * {@link #readLong()} for each value.
+     */
+    public void readLongArray(@NonNull long[] value) throws IOException {
+        readLongArray(value, 0, value.length);
+    }
+
+    /**
+     * Read {@code len} values into the given array starting at {@code off},
+     * equivalent to calling {@link #readLong()} for each value, but copying
+     * entire runs out of our buffer at once.
+     */
+    public void readLongArray(@NonNull long[] value, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, value.length);
+        while (len > 0) {
+            final ByteBuffer view = obtainArrayView(Long.BYTES);
+            final int count = Math.min(len, view.remaining() / Long.BYTES);
+            view.asLongBuffer().get(value, off, count);
+            mBufferPos += count * Long.BYTES;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Read values to fill the given array, equivalent to calling
+     * {@link #readFloat()} for each value.
+     */
+    public void readFloatArray(@NonNull float[] value) throws IOException {
+        readFloatArray(value, 0, value.length);
+    }
+
+    /**
+     * Read {@code len} values into the given array starting at {@code off},
+     * equivalent to calling {@link #readFloat()} for each value, but copying
+     * entire runs out of our buffer at once.
+     */
+    public void readFloatArray(@NonNull float[] value, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, value.length);
+        while (len > 0) {
+            final ByteBuffer view = obtainArrayView(Float.BYTES);
+            final int count = Math.min(len, view.remaining() / Float.BYTES);
+            view.asFloatBuffer().get(value, off, count);
+            mBufferPos += count * Float.BYTES;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Read values to fill the given array, equivalent to calling
+     * {@link #readDouble()} for each value.
+     */
+    public void readDoubleArray(@NonNull double[] value) throws IOException {
+        readDoubleArray(value, 0, value.length);
+    }
+
+    /**
+     * Read {@code len} values into the given array starting at {@code off},
+     * equivalent to calling {@link #readDouble()} for each value, but copying
+     * entire runs out of our buffer at once.
+     */
+    public void readDoubleArray(@NonNull double[] value, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, value.length);
+        while (len > 0) {
+            final ByteBuffer view = obtainArrayView(Double.BYTES);
+            final int count = Math.min(len, view.remaining() / Double.BYTES);
+            view.asDoubleBuffer().get(value, off, count);
+            mBufferPos += count * Double.BYTES;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Return {@link #mArrayView} positioned at our next unread byte, filling
+     * first if there isn't at least one value of the given size buffered.
+     */
+    private @NonNull ByteBuffer obtainArrayView(int size) throws IOException {
+        if (mBufferLim - mBufferPos < size) fill(size);
+        if (mArrayView == null) {
+            mArrayView = ByteBuffer.wrap(mBuffer);
+        }
+        mArrayView.limit(mBufferLim);
+        mArrayView.position(mBufferPos);
+        return mArrayView;
+    }
+
     @Override
     public int skipBytes(int n) throws IOException {
-        // Callers should read data piecemeal
-        throw new UnsupportedOperationException();
+        int skipped = 0;
+        while (skipped < n) {
+            if (mBufferPos == mBufferLim) {
+                updateChecksum();
+                final int c = mIn.read(mBuffer, 0, mBufferCap);
+                if (c == -1) break;
+                mBufferPos = 0;
+                mBufferLim = c;
+                mChecksumPos = 0;
+            }
+            final int c = Math.min(n - skipped, mBufferLim - mBufferPos);
+            mBufferPos += c;
+            skipped += c;
+        }
+        return skipped;
     }
 
     @Override
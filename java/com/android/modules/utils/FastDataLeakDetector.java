@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.modules.utils;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Detects instances handed out by {@link FastDataInput#obtain} and
+ * {@link FastDataOutput#obtain} which become unreachable without ever being
+ * released, and so never return to their pool.
+ * <p>
+ * Detection is disabled until a reporter is installed, in which case
+ * obtaining an instance costs a single volatile read. Once enabled, each
+ * obtained instance is tracked through a {@link WeakReference} recording where
+ * it was obtained, instead of making every instance finalizable. Leaks are
+ * reported the next time any instance is obtained, or by
+ * {@link #checkLeaks()}.
+ */
+public final class FastDataLeakDetector {
+    private static volatile Consumer<Throwable> sReporter;
+
+    private static final ReferenceQueue<Object> sQueue = new ReferenceQueue<>();
+    private static final Set<Tracker> sTrackers = ConcurrentHashMap.newKeySet();
+
+    private FastDataLeakDetector() {
+    }
+
+    /**
+     * Handle held by a tracked instance until it's released.
+     */
+    static final class Tracker extends WeakReference<Object> {
+        final Throwable mSite;
+
+        Tracker(@NonNull Object instance, @NonNull Throwable site) {
+            super(instance, sQueue);
+            mSite = site;
+        }
+    }
+
+    /**
+     * Install the given reporter, which is handed a {@link Throwable} pointing
+     * at where each leaked instance was obtained, or disable detection when
+     * {@code null}.
+     */
+    public static void setReporter(@Nullable Consumer<Throwable> reporter) {
+        sReporter = reporter;
+        if (reporter == null) {
+            sTrackers.clear();
+        }
+    }
+
+    /**
+     * Report any tracked instances which have been collected without being
+     * released since the last check.
+     */
+    public static void checkLeaks() {
+        final Consumer<Throwable> reporter = sReporter;
+        Tracker tracker;
+        while ((tracker = (Tracker) sQueue.poll()) != null) {
+            if (sTrackers.remove(tracker) && reporter != null) {
+                reporter.accept(tracker.mSite);
+            }
+        }
+    }
+
+    /**
+     * Begin tracking the given freshly obtained instance.
+     *
+     * @return handle to pass to {@link #untrack} once released, or
+     *         {@code null} when detection is disabled.
+     */
+    static @Nullable Tracker track(@NonNull Object instance) {
+        if (sReporter == null) return null;
+        checkLeaks();
+        final Tracker tracker = new Tracker(instance, new Throwable(
+                "Obtained " + instance.getClass().getSimpleName() + " was never released"));
+        sTrackers.add(tracker);
+        return tracker;
+    }
+
+    static void untrack(@Nullable Tracker tracker) {
+        if (tracker != null) {
+            sTrackers.remove(tracker);
+            tracker.clear();
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.modules.utils;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 
 import java.io.BufferedOutputStream;
 import java.io.Closeable;
@@ -25,8 +26,13 @@ import java.io.DataOutputStream;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.Checksum;
 
 /**
  * Optimized implementation of {@link DataOutput} which buffers data in memory
@@ -40,6 +46,15 @@ public class FastDataOutput implements DataOutput, Flushable, Closeable {
 
     protected static final int DEFAULT_BUFFER_SIZE = 32_768;
 
+    /**
+     * Small pool of released instances which are recycled by
+     * {@link #obtain(OutputStream)}, avoiding a fresh buffer allocation for
+     * every document that is written.
+     */
+    private static final int POOL_SIZE = 4;
+    private static final AtomicReferenceArray<FastDataOutput> sPool =
+            new AtomicReferenceArray<>(POOL_SIZE);
+
     protected final byte[] mBuffer;
     protected final int mBufferCap;
 
@@ -47,19 +62,62 @@ public class FastDataOutput implements DataOutput, Flushable, Closeable {
     protected int mBufferPos;
 
     /**
-     * Values that have been "interned" by {@link #writeInternedUTF(String)}.
+     * Number of bytes which have already been handed to {@link #mOut}.
+     */
+    long mWrittenCount;
+
+    /**
+     * Optional checksum which is updated with every byte as it leaves our
+     * buffer, so that it's available without a second pass over the output.
+     */
+    private Checksum mChecksum;
+
+    /**
+     * Big-endian view of {@link #mBuffer} used to copy runs of primitive
+     * values, created lazily.
+     */
+    private ByteBuffer mArrayView;
+
+    /**
+     * Values that have been "interned" by {@link #writeInternedUTF(String)},
+     * stored in an open-addressing hash table of parallel arrays to avoid
+     * boxing and per-entry allocations. The table capacity is always a power
+     * of two, and is kept at most half full.
      */
-    private final HashMap<String, Integer> mStringRefs = new HashMap<>();
+    private static final int DEFAULT_STRING_REFS_CAPACITY = 64;
+    private static final int MAX_RETAINED_STRING_REFS_CAPACITY = 4_096;
+
+    private int mStringRefCount = 0;
+    private String[] mStringRefKeys = new String[DEFAULT_STRING_REFS_CAPACITY];
+    private int[] mStringRefValues = new int[DEFAULT_STRING_REFS_CAPACITY];
+
+    /**
+     * When enabled by {@link #setStringRefOffsetsTracked(boolean)}, the
+     * offset at which the value of each interned reference was written.
+     */
+    private long[] mStringRefOffsets;
+
+    /**
+     * Tracks instances handed out by {@link #obtain} until they're released.
+     */
+    private FastDataLeakDetector.Tracker mLeakTracker;
 
     public FastDataOutput(@NonNull OutputStream out, int bufferSize) {
+        this(bufferSize);
+        setOutput(out);
+    }
+
+    /**
+     * Constructor for subclasses which drain somewhere other than an
+     * {@link OutputStream}.
+     */
+    FastDataOutput(int bufferSize) {
         if (bufferSize < 8) {
             throw new IllegalArgumentException();
         }
 
         mBuffer = newByteArray(bufferSize);
         mBufferCap = mBuffer.length;
-
-        setOutput(out);
     }
 
     /**
@@ -72,7 +130,52 @@ public class FastDataOutput implements DataOutput, Flushable, Closeable {
      * sequences.
      */
     public static FastDataOutput obtain(@NonNull OutputStream out) {
-        return new FastDataOutput(out, DEFAULT_BUFFER_SIZE);
+        FastDataOutput instance = null;
+        for (int i = 0; i < POOL_SIZE && instance == null; i++) {
+            final FastDataOutput candidate = sPool.get(i);
+            if (candidate != null && sPool.compareAndSet(i, candidate, null)) {
+                instance = candidate;
+                instance.setOutput(out);
+            }
+        }
+        if (instance == null) {
+            instance = new FastDataOutput(out, DEFAULT_BUFFER_SIZE);
+        }
+        instance.mLeakTracker = FastDataLeakDetector.track(instance);
+        return instance;
+    }
+
+    /**
+     * Obtain a {@link FastDataOutput} configured with the given
+     * {@link OutputStream}, where full buffers are written to the stream in
+     * order by a task running on the given {@link Executor}, overlapping
+     * encoding with I/O.
+     * <p>
+     * Any failure of a background write is reported by the next call which
+     * drains, or by {@link #flush()}, which also waits for all pending writes
+     * to complete.
+     */
+    public static FastDataOutput obtain(@NonNull OutputStream out, @NonNull Executor executor) {
+        final FastDataOutput instance = new AsyncFastDataOutput(out, executor,
+                DEFAULT_BUFFER_SIZE);
+        instance.mLeakTracker = FastDataLeakDetector.track(instance);
+        return instance;
+    }
+
+    /**
+     * Obtain a {@link FastDataOutput} configured to write directly to the
+     * given {@link WritableByteChannel}, which must be in blocking mode.
+     * <p>
+     * Unlike {@link #obtain(OutputStream)}, buffered data is drained straight
+     * into the channel without an intermediate stream, and large payloads are
+     * written together with any buffered data using a single gathering write
+     * when the channel supports it. Released instances are recycled just like
+     * those obtained for an {@link OutputStream}.
+     */
+    public static FastDataOutput obtain(@NonNull WritableByteChannel channel) {
+        final FastDataOutput instance = ChannelFastDataOutput.obtainChannel(channel);
+        instance.mLeakTracker = FastDataLeakDetector.track(instance);
+        return instance;
     }
 
     /**
@@ -84,9 +187,25 @@ public class FastDataOutput implements DataOutput, Flushable, Closeable {
             throw new IllegalStateException("Lingering data, call flush() before releasing.");
         }
 
+        // Only recycle instances that were actually in use, so that a
+        // duplicate release can never hand the same instance out twice
+        final boolean recycle = (mOut != null) && (getClass() == FastDataOutput.class)
+                && (mBufferCap == DEFAULT_BUFFER_SIZE);
+
+        FastDataLeakDetector.untrack(mLeakTracker);
+        mLeakTracker = null;
         mOut = null;
         mBufferPos = 0;
-        mStringRefs.clear();
+        mWrittenCount = 0;
+        mChecksum = null;
+        clearStringRefs();
+        mStringRefOffsets = null;
+
+        if (recycle) {
+            for (int i = 0; i < POOL_SIZE; i++) {
+                if (sPool.compareAndSet(i, null, this)) break;
+            }
+        }
     }
 
     public byte[] newByteArray(int bufferSize) {
@@ -103,16 +222,57 @@ public class FastDataOutput implements DataOutput, Flushable, Closeable {
 
         mOut = Objects.requireNonNull(out);
         mBufferPos = 0;
-        mStringRefs.clear();
+        mWrittenCount = 0;
+        mChecksum = null;
+        clearStringRefs();
+        mStringRefOffsets = null;
     }
 
     protected void drain() throws IOException {
         if (mBufferPos > 0) {
             mOut.write(mBuffer, 0, mBufferPos);
+            onWritten(mBuffer, 0, mBufferPos);
             mBufferPos = 0;
         }
     }
 
+    /**
+     * Account for bytes which have been handed onwards, either from our
+     * buffer or directly from a large payload.
+     */
+    final void onWritten(byte[] b, int off, int len) {
+        mWrittenCount += len;
+        if (mChecksum != null) {
+            mChecksum.update(b, off, len);
+        }
+    }
+
+    /**
+     * Begin accumulating the given checksum over all bytes written after this
+     * point, or stop accumulating when {@code null}.
+     */
+    void setChecksum(@Nullable Checksum checksum) throws IOException {
+        drain();
+        mChecksum = checksum;
+    }
+
+    /**
+     * Return the current value of the checksum configured by
+     * {@link #setChecksum(Checksum)}, covering every byte written so far.
+     */
+    long getChecksum() throws IOException {
+        drain();
+        return mChecksum.getValue();
+    }
+
+    /**
+     * Return the total number of bytes written since this output was
+     * configured, including any bytes still pending in our buffer.
+     */
+    public long size() {
+        return mWrittenCount + mBufferPos;
+    }
+
     @Override
     public void flush() throws IOException {
         drain();
@@ -140,6 +300,7 @@ public class FastDataOutput implements DataOutput, Flushable, Closeable {
         if (mBufferCap < len) {
             drain();
             mOut.write(b, off, len);
+            onWritten(b, off, len);
         } else {
             if (mBufferCap - mBufferPos < len) drain();
             System.arraycopy(b, off, mBuffer, mBufferPos, len);
@@ -149,6 +310,21 @@ public class FastDataOutput implements DataOutput, Flushable, Closeable {
 
     @Override
     public void writeUTF(String s) throws IOException {
+        // When even the worst-case encoding fits in our buffer, we measure and
+        // encode in a single pass, then go back to fill in the length
+        final int maxLen = 3 * s.length();
+        if (mBufferCap >= 2 + maxLen) {
+            if (mBufferCap - mBufferPos < 2 + maxLen) drain();
+            final int len = ModifiedUtf8.encodeAndCount(mBuffer, mBufferPos + 2, s);
+            if (len > MAX_UNSIGNED_SHORT) {
+                // Nothing is committed until we advance our position
+                throw new IOException("Modified UTF-8 length too large: " + len);
+            }
+            putShort(mBuffer, mBufferPos, len);
+            mBufferPos += 2 + len;
+            return;
+        }
+
         final int len = (int) ModifiedUtf8.countBytes(s, false);
         if (len > MAX_UNSIGNED_SHORT) {
             throw new IOException("Modified UTF-8 length too large: " + len);
@@ -181,22 +357,168 @@ public class FastDataOutput implements DataOutput, Flushable, Closeable {
      * @see FastDataInput#readInternedUTF()
      */
     public void writeInternedUTF(@NonNull String s) throws IOException {
-        Integer ref = mStringRefs.get(s);
-        if (ref != null) {
-            writeShort(ref);
+        final int slot = findStringRef(s);
+        if (slot >= 0) {
+            writeShort(mStringRefValues[slot]);
         } else {
             writeShort(MAX_UNSIGNED_SHORT);
-            writeUTF(s);
 
             // We can only safely intern when we have remaining values; if we're
-            // full we at least sent the string value above
-            ref = mStringRefs.size();
-            if (ref < MAX_UNSIGNED_SHORT) {
-                mStringRefs.put(s, ref);
+            // full we at least send the string value below
+            final boolean intern = mStringRefCount < MAX_UNSIGNED_SHORT;
+            if (intern) {
+                recordStringRefOffset(mStringRefCount);
+            }
+            writeUTF(s);
+            if (intern) {
+                insertStringRef(~slot, s);
+            }
+        }
+    }
+
+    /**
+     * Write a {@link String} value with the additional signal that the given
+     * value is a candidate for being canonicalized, using a variable-length
+     * reference which has no limit on the number of unique values that can be
+     * interned.
+     * <p>
+     * This encoding is not compatible with {@link #writeInternedUTF(String)},
+     * and callers must consistently use only one of them for a given output.
+     *
+     * @see FastDataInput#readVarInternedUTF()
+     */
+    public void writeVarInternedUTF(@NonNull String s) throws IOException {
+        final int slot = findStringRef(s);
+        if (slot >= 0) {
+            writeVarInt(mStringRefValues[slot] + 1);
+        } else {
+            writeVarInt(0);
+            recordStringRefOffset(mStringRefCount);
+            writeUTF(s);
+            insertStringRef(~slot, s);
+        }
+    }
+
+    /**
+     * Write a table of values to be interned up front, so that every later
+     * {@link #writeVarInternedUTF(String)} of those values is written as a
+     * reference. Duplicate values are only written once.
+     *
+     * @see FastDataInput#readVarInternedUTFTable()
+     */
+    public void writeVarInternedUTFTable(@NonNull String[] values) throws IOException {
+        final int start = mStringRefCount;
+        for (String value : values) {
+            final int slot = findStringRef(value);
+            if (slot < 0) {
+                insertStringRef(~slot, value);
+            }
+        }
+
+        // Values were assigned consecutive references above, which is the
+        // order they need to be written in
+        int next = start;
+        writeVarInt(mStringRefCount - start);
+        for (String value : values) {
+            if (mStringRefValues[findStringRef(value)] == next) {
+                recordStringRefOffset(next);
+                writeUTF(value);
+                next++;
+            }
+        }
+    }
+
+    /**
+     * Find the slot of the given value in our interned string table.
+     *
+     * @return slot index when the value is present, otherwise the bitwise
+     *         complement of the empty slot where it should be inserted
+     */
+    private int findStringRef(@NonNull String s) {
+        final String[] keys = mStringRefKeys;
+        final int mask = keys.length - 1;
+        final int hash = s.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (true) {
+            final String key = keys[slot];
+            if (key == null) {
+                return ~slot;
+            } else if (key == s || key.equals(s)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Insert the given value into the empty slot returned by
+     * {@link #findStringRef(String)}, assigning it the next reference.
+     */
+    private void insertStringRef(int slot, @NonNull String s) {
+        mStringRefKeys[slot] = s;
+        mStringRefValues[slot] = mStringRefCount++;
+
+        if (mStringRefCount > (mStringRefKeys.length >> 1)) {
+            final String[] oldKeys = mStringRefKeys;
+            final int[] oldValues = mStringRefValues;
+            mStringRefKeys = new String[oldKeys.length << 1];
+            mStringRefValues = new int[oldValues.length << 1];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    final int newSlot = ~findStringRef(oldKeys[i]);
+                    mStringRefKeys[newSlot] = oldKeys[i];
+                    mStringRefValues[newSlot] = oldValues[i];
+                }
             }
         }
     }
 
+    /**
+     * Return the number of values interned so far.
+     */
+    int getStringRefCount() {
+        return mStringRefCount;
+    }
+
+    /**
+     * Begin or stop recording the offset at which the value of each
+     * newly interned reference is written, which must be configured before
+     * any values are interned.
+     */
+    void setStringRefOffsetsTracked(boolean tracked) {
+        mStringRefOffsets = tracked ? new long[DEFAULT_STRING_REFS_CAPACITY] : null;
+    }
+
+    /**
+     * Return the offset of the length-prefixed value of each interned
+     * reference, as recorded since {@link #setStringRefOffsetsTracked}.
+     */
+    @NonNull long[] getStringRefOffsets() {
+        return Arrays.copyOf(mStringRefOffsets, mStringRefCount);
+    }
+
+    private void recordStringRefOffset(int ref) {
+        if (mStringRefOffsets == null) return;
+        if (ref == mStringRefOffsets.length) {
+            mStringRefOffsets = Arrays.copyOf(mStringRefOffsets, ref << 1);
+        }
+        mStringRefOffsets[ref] = size();
+    }
+
+    /**
+     * Forget all interned values, retaining the table for reuse unless it has
+     * grown unreasonably large.
+     */
+    private void clearStringRefs() {
+        if (mStringRefKeys.length > MAX_RETAINED_STRING_REFS_CAPACITY) {
+            mStringRefKeys = new String[DEFAULT_STRING_REFS_CAPACITY];
+            mStringRefValues = new int[DEFAULT_STRING_REFS_CAPACITY];
+        } else if (mStringRefCount > 0) {
+            Arrays.fill(mStringRefKeys, null);
+        }
+        mStringRefCount = 0;
+    }
+
     @Override
     public void writeBoolean(boolean v) throws IOException {
         writeByte(v ? 1 : 0);
@@ -211,8 +533,8 @@ public class FastDataOutput implements DataOutput, Flushable, Closeable {
     @Override
     public void writeShort(int v) throws IOException {
         if (mBufferCap - mBufferPos < 2) drain();
-        mBuffer[mBufferPos++] = (byte) ((v >>  8) & 0xff);
-        mBuffer[mBufferPos++] = (byte) ((v >>  0) & 0xff);
+        putShort(mBuffer, mBufferPos, v);
+        mBufferPos += 2;
     }
 
     @Override
@@ -223,25 +545,70 @@ public class FastDataOutput implements DataOutput, Flushable, Closeable {
     @Override
     public void writeInt(int v) throws IOException {
         if (mBufferCap - mBufferPos < 4) drain();
-        mBuffer[mBufferPos++] = (byte) ((v >> 24) & 0xff);
-        mBuffer[mBufferPos++] = (byte) ((v >> 16) & 0xff);
-        mBuffer[mBufferPos++] = (byte) ((v >>  8) & 0xff);
-        mBuffer[mBufferPos++] = (byte) ((v >>  0) & 0xff);
+        putInt(mBuffer, mBufferPos, v);
+        mBufferPos += 4;
     }
 
     @Override
     public void writeLong(long v) throws IOException {
         if (mBufferCap - mBufferPos < 8) drain();
-        int i = (int) (v >> 32);
-        mBuffer[mBufferPos++] = (byte) ((i >> 24) & 0xff);
-        mBuffer[mBufferPos++] = (byte) ((i >> 16) & 0xff);
-        mBuffer[mBufferPos++] = (byte) ((i >>  8) & 0xff);
-        mBuffer[mBufferPos++] = (byte) ((i >>  0) & 0xff);
-        i = (int) v;
-        mBuffer[mBufferPos++] = (byte) ((i >> 24) & 0xff);
-        mBuffer[mBufferPos++] = (byte) ((i >> 16) & 0xff);
-        mBuffer[mBufferPos++] = (byte) ((i >>  8) & 0xff);
-        mBuffer[mBufferPos++] = (byte) ((i >>  0) & 0xff);
+        putInt(mBuffer, mBufferPos, (int) (v >> 32));
+        putInt(mBuffer, mBufferPos + 4, (int) v);
+        mBufferPos += 8;
+    }
+
+    /**
+     * Encode a big-endian {@code short} at the given offset. All bytes are
+     * stored at constant offsets from a single index, checking the furthest
+     * first, which lets compilers fold the remaining bounds checks and
+     * combine the stores.
+     */
+    static void putShort(byte[] b, int off, int v) {
+        b[off + 1] = (byte) v;
+        b[off] = (byte) (v >> 8);
+    }
+
+    /**
+     * Encode a big-endian {@code int} at the given offset, using the same
+     * approach as {@link #putShort(byte[], int, int)}.
+     */
+    static void putInt(byte[] b, int off, int v) {
+        b[off + 3] = (byte) v;
+        b[off] = (byte) (v >> 24);
+        b[off + 1] = (byte) (v >> 16);
+        b[off + 2] = (byte) (v >> 8);
+    }
+
+    /**
+     * Write the given value as an unsigned variable-length {@code int} encoded
+     * as LEB128, using between 1 and 5 bytes. Callers with values that may be
+     * negative should consider zig-zag encoding them first.
+     *
+     * @see FastDataInput#readVarInt()
+     */
+    public void writeVarInt(int v) throws IOException {
+        if (mBufferCap - mBufferPos < 5) drain();
+        while ((v & ~0x7f) != 0) {
+            mBuffer[mBufferPos++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        mBuffer[mBufferPos++] = (byte) v;
+    }
+
+    /**
+     * Write the given value as an unsigned variable-length {@code long}
+     * encoded as LEB128, using between 1 and 10 bytes. Callers with values
+     * that may be negative should consider zig-zag encoding them first.
+     *
+     * @see FastDataInput#readVarLong()
+     */
+    public void writeVarLong(long v) throws IOException {
+        if (mBufferCap - mBufferPos < 10) drain();
+        while ((v & ~0x7fL) != 0) {
+            mBuffer[mBufferPos++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        mBuffer[mBufferPos++] = (byte) v;
     }
 
     @Override
@@ -254,6 +621,123 @@ public class FastDataOutput implements DataOutput, Flushable, Closeable {
         writeLong(Double.doubleToLongBits(v));
     }
 
+    /**
+     * Write all values of the given array, equivalent to calling
+     * {@link #writeInt(int)} for each value.
+     */
+    public void writeIntArray(@NonNull int[] value) throws IOException {
+        writeIntArray(value, 0, value.length);
+    }
+
+    /**
+     * Write {@code len} values of the given array starting at {@code off},
+     * equivalent to calling {@link #writeInt(int)} for each value, but copying
+     * entire runs into our buffer at once.
+     */
+    public void writeIntArray(@NonNull int[] value, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, value.length);
+        while (len > 0) {
+            final ByteBuffer view = obtainArrayView(Integer.BYTES);
+            final int count = Math.min(len, view.remaining() / Integer.BYTES);
+            view.asIntBuffer().put(value, off, count);
+            mBufferPos += count * Integer.BYTES;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Write all values of the given array, equivalent to calling
+     * {@link #writeLong(long)} for each value.
+     */
+    public void writeLongArray(@NonNull long[] value) throws IOException {
+        writeLongArray(value, 0, value.length);
+    }
+
+    /**
+     * Write {@code len} values of the given array starting at {@code off},
+     * equivalent to calling {@link #writeLong(long)} for each value, but
+     * copying entire runs into our buffer at once.
+     */
+    public void writeLongArray(@NonNull long[] value, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, value.length);
+        while (len > 0) {
+            final ByteBuffer view = obtainArrayView(Long.BYTES);
+            final int count = Math.min(len, view.remaining() / Long.BYTES);
+            view.asLongBuffer().put(value, off, count);
+            mBufferPos += count * Long.BYTES;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Write all values of the given array, equivalent to calling
+     * {@link #writeFloat(float)} for each value.
+     */
+    public void writeFloatArray(@NonNull float[] value) throws IOException {
+        writeFloatArray(value, 0, value.length);
+    }
+
+    /**
+     * Write {@code len} values of the given array starting at {@code off},
+     * equivalent to calling {@link #writeFloat(float)} for each value, but
+     * copying entire runs into our buffer at once. NaN values retain their raw
+     * bits.
+     */
+    public void writeFloatArray(@NonNull float[] value, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, value.length);
+        while (len > 0) {
+            final ByteBuffer view = obtainArrayView(Float.BYTES);
+            final int count = Math.min(len, view.remaining() / Float.BYTES);
+            view.asFloatBuffer().put(value, off, count);
+            mBufferPos += count * Float.BYTES;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Write all values of the given array, equivalent to calling
+     * {@link #writeDouble(double)} for each value.
+     */
+    public void writeDoubleArray(@NonNull double[] value) throws IOException {
+        writeDoubleArray(value, 0, value.length);
+    }
+
+    /**
+     * Write {@code len} values of the given array starting at {@code off},
+     * equivalent to calling {@link #writeDouble(double)} for each value, but
+     * copying entire runs into our buffer at once. NaN values retain their raw
+     * bits.
+     */
+    public void writeDoubleArray(@NonNull double[] value, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, value.length);
+        while (len > 0) {
+            final ByteBuffer view = obtainArrayView(Double.BYTES);
+            final int count = Math.min(len, view.remaining() / Double.BYTES);
+            view.asDoubleBuffer().put(value, off, count);
+            mBufferPos += count * Double.BYTES;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Return {@link #mArrayView} positioned at the end of our buffered data,
+     * draining first if there isn't room for at least one value of the given
+     * size.
+     */
+    private @NonNull ByteBuffer obtainArrayView(int size) throws IOException {
+        if (mBufferCap - mBufferPos < size) drain();
+        if (mArrayView == null) {
+            mArrayView = ByteBuffer.wrap(mBuffer);
+        }
+        mArrayView.limit(mBufferCap);
+        mArrayView.position(mBufferPos);
+        return mArrayView;
+    }
+
     @Override
     public void writeBytes(String s) throws IOException {
         // Callers should use writeUTF()
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Implementation of {@link FastDataInput} which reads directly from a
+ * read-only memory mapping of a {@link FileChannel}.
+ * <p>
+ * Since the entire remaining contents of the file are visible through the
+ * mapping, primitives and strings are decoded in place without any read
+ * syscalls or buffer compaction copies.
+ */
+class MappedFastDataInput extends FastDataInput {
+    private FileChannel mChannel;
+    private ByteBuffer mMapped;
+
+    private Checksum mChecksum;
+    private int mChecksumPos;
+
+    MappedFastDataInput(@NonNull FileChannel channel) throws IOException {
+        mChannel = Objects.requireNonNull(channel);
+
+        final long start = channel.position();
+        final long size = channel.size() - start;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large to map: " + size);
+        }
+        mMapped = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    }
+
+    private MappedFastDataInput(@NonNull ByteBuffer mapped) {
+        mMapped = mapped;
+    }
+
+    /**
+     * Return a new independent instance which shares our mapping, positioned
+     * at the given offset and ending at the given limit. Offsets within the
+     * returned instance remain relative to the start of our mapping.
+     */
+    @NonNull MappedFastDataInput slice(int position, int limit) throws IOException {
+        if (position < 0 || position > limit || limit > mMapped.limit()) {
+            throw new IOException("Invalid slice " + position + ".." + limit);
+        }
+        final ByteBuffer mapped = mMapped.duplicate();
+        mapped.limit(limit);
+        mapped.position(position);
+        return new MappedFastDataInput(mapped);
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        mChannel = null;
+        mMapped = null;
+        mChecksum = null;
+    }
+
+    @Override
+    protected void setInput(@NonNull InputStream in) {
+        // Mapped instances are bound to a single channel
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void fill(int need) throws IOException {
+        // All data is already visible through the mapping, so a request for
+        // more data than remains means we've reached the end
+        throw new EOFException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel != null) {
+            mChannel.close();
+        }
+        release();
+    }
+
+    /**
+     * Return our current offset from the start of the mapping.
+     */
+    int position() {
+        return mMapped.position();
+    }
+
+    /**
+     * Return the total length of the mapping.
+     */
+    int length() {
+        return mMapped.limit();
+    }
+
+    /**
+     * Reposition to the given offset from the start of the mapping.
+     */
+    void seek(int position) throws IOException {
+        if (position < 0 || position > mMapped.limit()) {
+            throw new IOException("Invalid position " + position);
+        }
+        mMapped.position(position);
+    }
+
+    @Override
+    void setChecksum(@Nullable Checksum checksum) {
+        mChecksum = checksum;
+        mChecksumPos = mMapped.position();
+    }
+
+    @Override
+    long getChecksum() {
+        // Accumulate over the mapping directly, since there's no buffer
+        // compaction for us to piggyback on
+        final int pos = mMapped.position();
+        if (pos > mChecksumPos) {
+            final ByteBuffer consumed = mMapped.duplicate();
+            consumed.limit(pos);
+            consumed.position(mChecksumPos);
+            if (mChecksum instanceof CRC32) {
+                ((CRC32) mChecksum).update(consumed);
+            } else {
+                final byte[] chunk = new byte[Math.min(consumed.remaining(), 8_192)];
+                while (consumed.hasRemaining()) {
+                    final int len = Math.min(consumed.remaining(), chunk.length);
+                    consumed.get(chunk, 0, len);
+                    mChecksum.update(chunk, 0, len);
+                }
+            }
+        }
+        mChecksumPos = pos;
+        return mChecksum.getValue();
+    }
+
+    @Override
+    public int skipBytes(int n) {
+        final int c = Math.max(0, Math.min(n, mMapped.remaining()));
+        mMapped.position(mMapped.position() + c);
+        return c;
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        if (mMapped.remaining() < len) throw new EOFException();
+        mMapped.get(b, off, len);
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        final int len = readUnsignedShort();
+        if (mMapped.remaining() < len) throw new EOFException();
+        final int pos = mMapped.position();
+        final String res = ModifiedUtf8.decode(mMapped, obtainCharBuffer(len), pos, len);
+        mMapped.position(pos + len);
+        return res;
+    }
+
+    @Override
+    public byte peekByte() throws IOException {
+        if (!mMapped.hasRemaining()) throw new EOFException();
+        return mMapped.get(mMapped.position());
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        if (!mMapped.hasRemaining()) throw new EOFException();
+        return mMapped.get();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        if (mMapped.remaining() < 2) throw new EOFException();
+        return mMapped.getShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        if (mMapped.remaining() < 4) throw new EOFException();
+        return mMapped.getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        if (mMapped.remaining() < 8) throw new EOFException();
+        return mMapped.getLong();
+    }
+
+    @Override
+    public int readVarInt() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = readByte();
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) return result;
+        }
+        throw new IOException("Malformed variable-length int");
+    }
+
+    @Override
+    public long readVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = readByte();
+            result |= (long) (b & 0x7f) << shift;
+            if (b >= 0) return result;
+        }
+        throw new IOException("Malformed variable-length long");
+    }
+
+    @Override
+    public void readIntArray(@NonNull int[] value, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, value.length);
+        if (mMapped.remaining() / Integer.BYTES < len) throw new EOFException();
+        mMapped.asIntBuffer().get(value, off, len);
+        mMapped.position(mMapped.position() + len * Integer.BYTES);
+    }
+
+    @Override
+    public void readLongArray(@NonNull long[] value, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, value.length);
+        if (mMapped.remaining() / Long.BYTES < len) throw new EOFException();
+        mMapped.asLongBuffer().get(value, off, len);
+        mMapped.position(mMapped.position() + len * Long.BYTES);
+    }
+
+    @Override
+    public void readFloatArray(@NonNull float[] value, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, value.length);
+        if (mMapped.remaining() / Float.BYTES < len) throw new EOFException();
+        mMapped.asFloatBuffer().get(value, off, len);
+        mMapped.position(mMapped.position() + len * Float.BYTES);
+    }
+
+    @Override
+    public void readDoubleArray(@NonNull double[] value, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, value.length);
+        if (mMapped.remaining() / Double.BYTES < len) throw new EOFException();
+        mMapped.asDoubleBuffer().get(value, off, len);
+        mMapped.position(mMapped.position() + len * Double.BYTES);
+    }
+}
@@ -17,6 +17,8 @@
 package com.android.modules.utils;
 
 import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class ModifiedUtf8 {
     /**
@@ -27,7 +29,20 @@ public class ModifiedUtf8 {
      */
     public static String decode(byte[] in, char[] out, int offset, int utfSize)
             throws UTFDataFormatException {
-        int count = 0, s = 0, a;
+        // Pure ASCII values are identical when decoded as Latin-1, which lets
+        // us build the string without going through the char[]
+        int ascii = 0;
+        while (ascii < utfSize && in[offset + ascii] >= 0) {
+            ascii++;
+        }
+        if (ascii == utfSize) {
+            return new String(in, offset, utfSize, StandardCharsets.ISO_8859_1);
+        }
+        for (int i = 0; i < ascii; i++) {
+            out[i] = (char) in[offset + i];
+        }
+
+        int count = ascii, s = ascii, a;
         while (count < utfSize) {
             if ((out[s] = (char) in[offset + count++]) < '\u0080') {
                 s++;
@@ -57,6 +72,44 @@ public class ModifiedUtf8 {
         return new String(out, 0, s);
     }
 
+    /**
+     * Decodes a {@link ByteBuffer} containing <i>modified UTF-8</i> bytes into a string, using
+     * absolute reads so that the position of the buffer is left untouched.
+     *
+     * @see #decode(byte[], char[], int, int)
+     */
+    public static String decode(ByteBuffer in, char[] out, int offset, int utfSize)
+            throws UTFDataFormatException {
+        int count = 0, s = 0, a;
+        while (count < utfSize) {
+            if ((out[s] = (char) in.get(offset + count++)) < '\u0080') {
+                s++;
+            } else if (((a = out[s]) & 0xe0) == 0xc0) {
+                if (count >= utfSize) {
+                    throw new UTFDataFormatException("bad second byte at " + count);
+                }
+                int b = in.get(offset + count++);
+                if ((b & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("bad second byte at " + (count - 1));
+                }
+                out[s++] = (char) (((a & 0x1F) << 6) | (b & 0x3F));
+            } else if ((a & 0xf0) == 0xe0) {
+                if (count + 1 >= utfSize) {
+                    throw new UTFDataFormatException("bad third byte at " + (count + 1));
+                }
+                int b = in.get(offset + count++);
+                int c = in.get(offset + count++);
+                if (((b & 0xC0) != 0x80) || ((c & 0xC0) != 0x80)) {
+                    throw new UTFDataFormatException("bad second or third byte at " + (count - 2));
+                }
+                out[s++] = (char) (((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F));
+            } else {
+                throw new UTFDataFormatException("bad byte at " + (count - 1));
+            }
+        }
+        return new String(out, 0, s);
+    }
+
     /**
      * Returns the number of bytes the modified UTF-8 representation of 's' would take. Note
      * that this is just the space for the bytes representing the characters, not the length
@@ -65,9 +118,13 @@ public class ModifiedUtf8 {
      * exception if the string is too long for its length to be represented by a short.
      */
     public static long countBytes(String s, boolean shortLength) throws UTFDataFormatException {
-        long result = 0;
         final int length = s.length();
-        for (int i = 0; i < length; ++i) {
+        int i = countAscii(s, 0, length);
+        long result = i;
+        if (shortLength && result > 65535) {
+            throw new UTFDataFormatException("String more than 65535 UTF bytes long");
+        }
+        for (; i < length; ++i) {
             char ch = s.charAt(i);
             if (ch != 0 && ch <= 127) { // U+0000 uses two bytes.
                 ++result;
@@ -88,8 +145,31 @@ public class ModifiedUtf8 {
      * byte array {@code dst}, starting at the given {@code offset}.
      */
     public static void encode(byte[] dst, int offset, String s) {
+        encodeAndCount(dst, offset, s);
+    }
+
+    /**
+     * Encodes the <i>modified UTF-8</i> bytes corresponding to string {@code s} into the
+     * byte array {@code dst}, starting at the given {@code offset}, returning the number of
+     * bytes written.
+     * <p>
+     * This allows callers to measure and encode in a single pass over {@code s}, as long as
+     * they can guarantee {@code dst} has room for the worst case of three bytes per char.
+     */
+    public static int encodeAndCount(byte[] dst, int offset, String s) {
+        final int start = offset;
         final int length = s.length();
-        for (int i = 0; i < length; i++) {
+
+        // Most values are ASCII, which we copy through with a minimum of
+        // branching before falling back to the general case below
+        int i = 0;
+        for (; i < length; i++) {
+            final char ch = s.charAt(i);
+            if (ch == 0 || ch > 127) break;
+            dst[offset++] = (byte) ch;
+        }
+
+        for (; i < length; i++) {
             char ch = s.charAt(i);
             if (ch != 0 && ch <= 127) { // U+0000 uses two bytes.
                 dst[offset++] = (byte) ch;
@@ -102,6 +182,21 @@ public class ModifiedUtf8 {
                 dst[offset++] = (byte) (0x80 | (0x3f & ch));
             }
         }
+        return offset - start;
+    }
+
+    /**
+     * Returns the length of the leading run of chars in {@code s} between {@code start} and
+     * {@code end} which are encoded as a single byte.
+     */
+    private static int countAscii(String s, int start, int end) {
+        int i = start;
+        while (i < end) {
+            final char ch = s.charAt(i);
+            if (ch == 0 || ch > 127) break; // U+0000 uses two bytes.
+            i++;
+        }
+        return i;
     }
 
     private ModifiedUtf8() {
@@ -22,6 +22,8 @@ import android.annotation.Nullable;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.nio.ByteBuffer;
+
 /**
  * Specialization of {@link XmlPullParser} which adds explicit methods to
  * support consistent and efficient conversion of primitive data types.
@@ -68,6 +70,102 @@ public interface TypedXmlPullParser extends XmlPullParser {
      */
     @NonNull byte[] getAttributeBytesBase64(int index) throws XmlPullParserException;
 
+    /**
+     * @return length of the decoded strongly-typed {@link #getAttributeValue},
+     *         otherwise {@code -1} if the value is {@code null}
+     * @throws XmlPullParserException if the value is malformed
+     */
+    default int getAttributeBytesHexLength(int index) throws XmlPullParserException {
+        final byte[] value = getAttributeBytesHex(index);
+        return (value != null) ? value.length : -1;
+    }
+
+    /**
+     * @return length of the decoded strongly-typed {@link #getAttributeValue},
+     *         otherwise {@code -1} if the value is {@code null}
+     * @throws XmlPullParserException if the value is malformed
+     */
+    default int getAttributeBytesBase64Length(int index) throws XmlPullParserException {
+        final byte[] value = getAttributeBytesBase64(index);
+        return (value != null) ? value.length : -1;
+    }
+
+    /**
+     * Copy the decoded strongly-typed {@link #getAttributeValue} into the given
+     * array, which must have room for {@link #getAttributeBytesHexLength}
+     * bytes starting at the given offset. Implementations may avoid any
+     * intermediate allocation.
+     *
+     * @return number of bytes copied, otherwise {@code -1} if the value is
+     *         {@code null}
+     * @throws XmlPullParserException if the value is malformed
+     * @throws IndexOutOfBoundsException if the value doesn't fit, in which
+     *         case nothing is copied
+     */
+    default int readAttributeBytesHex(int index, @NonNull byte[] dst, int off)
+            throws XmlPullParserException {
+        final byte[] value = getAttributeBytesHex(index);
+        if (value == null) return -1;
+        System.arraycopy(value, 0, dst, off, value.length);
+        return value.length;
+    }
+
+    /**
+     * Copy the decoded strongly-typed {@link #getAttributeValue} into the given
+     * array, which must have room for {@link #getAttributeBytesBase64Length}
+     * bytes starting at the given offset. Implementations may avoid any
+     * intermediate allocation.
+     *
+     * @return number of bytes copied, otherwise {@code -1} if the value is
+     *         {@code null}
+     * @throws XmlPullParserException if the value is malformed
+     * @throws IndexOutOfBoundsException if the value doesn't fit, in which
+     *         case nothing is copied
+     */
+    default int readAttributeBytesBase64(int index, @NonNull byte[] dst, int off)
+            throws XmlPullParserException {
+        final byte[] value = getAttributeBytesBase64(index);
+        if (value == null) return -1;
+        System.arraycopy(value, 0, dst, off, value.length);
+        return value.length;
+    }
+
+    /**
+     * Put the decoded strongly-typed {@link #getAttributeValue} into the given
+     * buffer, advancing its position.
+     *
+     * @return number of bytes put, otherwise {@code -1} if the value is
+     *         {@code null}
+     * @throws XmlPullParserException if the value is malformed
+     * @throws java.nio.BufferOverflowException if the value doesn't fit in the
+     *         remaining space, in which case the buffer is left unchanged
+     */
+    default int readAttributeBytesHex(int index, @NonNull ByteBuffer dst)
+            throws XmlPullParserException {
+        final byte[] value = getAttributeBytesHex(index);
+        if (value == null) return -1;
+        dst.put(value);
+        return value.length;
+    }
+
+    /**
+     * Put the decoded strongly-typed {@link #getAttributeValue} into the given
+     * buffer, advancing its position.
+     *
+     * @return number of bytes put, otherwise {@code -1} if the value is
+     *         {@code null}
+     * @throws XmlPullParserException if the value is malformed
+     * @throws java.nio.BufferOverflowException if the value doesn't fit in the
+     *         remaining space, in which case the buffer is left unchanged
+     */
+    default int readAttributeBytesBase64(int index, @NonNull ByteBuffer dst)
+            throws XmlPullParserException {
+        final byte[] value = getAttributeBytesBase64(index);
+        if (value == null) return -1;
+        dst.put(value);
+        return value.length;
+    }
+
     /**
      * @return decoded strongly-typed {@link #getAttributeValue}
      * @throws XmlPullParserException if the value is malformed
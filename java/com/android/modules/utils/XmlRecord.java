@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose fields are persisted as the attributes of a single XML
+ * tag. At compile time, an {@link XmlRecordCodec} named {@code FooXmlCodec} is
+ * generated alongside each annotated class {@code Foo}, which reads and writes
+ * the fields annotated with {@link Attribute} without any reflection.
+ * <p>
+ * Annotated classes and fields must be accessible from within their package,
+ * and fields must not be {@code final} or {@code static}.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface XmlRecord {
+    /**
+     * Marks a field persisted as an attribute with the given name. Supported
+     * field types are {@code int}, {@code long}, {@code float},
+     * {@code double}, {@code boolean}, {@link String} and {@code byte[]}.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @Target(ElementType.FIELD)
+    @interface Attribute {
+        /**
+         * Name of the attribute.
+         */
+        String value();
+
+        /**
+         * Write {@code int}, {@code long} and {@code byte[]} values using
+         * hexadecimal, instead of decimal or Base64 respectively.
+         */
+        boolean hex() default false;
+
+        /**
+         * Write {@link String} values using
+         * {@link TypedXmlSerializer#attributeInterned}, for values drawn from
+         * a small set of possibilities.
+         */
+        boolean interned() default false;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils;
+
+import android.annotation.NonNull;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes the fields of a record as the attributes of a single XML
+ * tag. Implementations are generated at compile time for classes annotated
+ * with {@link XmlRecord}.
+ */
+public interface XmlRecordCodec<T> {
+    /**
+     * Write all fields of the given record as attributes of the tag most
+     * recently started on the given serializer. Fields with {@code null}
+     * values are omitted.
+     */
+    void writeAttributes(@NonNull TypedXmlSerializer out, @NonNull T record)
+            throws IOException;
+
+    /**
+     * Read the attributes of the current tag of the given parser into the
+     * fields of the given record. Fields whose attributes are missing are left
+     * unchanged, and unknown attributes are ignored.
+     * <p>
+     * Attributes are visited once in order, so when they appear in the order
+     * they were written, each is matched with a single name comparison.
+     */
+    void readAttributes(@NonNull TypedXmlPullParser in, @NonNull T record)
+            throws XmlPullParserException;
+}
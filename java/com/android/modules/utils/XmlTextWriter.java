@@ -0,0 +1,592 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils;
+
+import android.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Writer of UTF-8 encoded text XML, which produces exactly the same bytes as
+ * {@code com.android.internal.util.FastXmlSerializer} does for the same
+ * events, but encodes directly into a byte buffer, and can format typed
+ * attribute values without going through a {@link String}.
+ * <p>
+ * Unlike {@code FastXmlSerializer}, tokens such as comments and CDATA
+ * sections are also supported.
+ */
+class XmlTextWriter {
+    private static final int BUFFER_SIZE = 32_768;
+
+    /**
+     * Longest formatted number, which is {@link Long#MIN_VALUE} in decimal.
+     */
+    private static final int MAX_NUMBER_LENGTH = 20;
+
+    /**
+     * Escapes for all characters below 64, or {@code null} when the
+     * character is written as-is.
+     */
+    private static final byte[][] ESCAPE_TABLE = new byte[64][];
+
+    static {
+        for (int c = 0; c < 32; c++) {
+            ESCAPE_TABLE[c] = ascii("&#" + c + ";");
+        }
+        ESCAPE_TABLE['"'] = ascii("&quot;");
+        ESCAPE_TABLE['&'] = ascii("&amp;");
+        ESCAPE_TABLE['<'] = ascii("&lt;");
+        ESCAPE_TABLE['>'] = ascii("&gt;");
+    }
+
+    private static final byte[] HEX_DIGITS = ascii("0123456789abcdef");
+    private static final byte[] BASE64_DIGITS = ascii(
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/");
+
+    private static final int MAX_INDENT = 62;
+
+    private static final byte[] DECLARATION = ascii(
+            "<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n");
+    private static final byte[] START_TAG_END = ascii(">\n");
+    private static final byte[] EMPTY_TAG_END = ascii(" />\n");
+    private static final byte[] END_TAG_START = ascii("</");
+    private static final byte[] ATTRIBUTE_VALUE_START = ascii("=\"");
+
+    private static final int CACHE_SIZE = 256;
+    private static final int MAX_CACHED_LENGTH = 128;
+
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPos;
+    private OutputStream mOut;
+
+    /**
+     * Encoded forms of recently written names and interned values, indexed by
+     * identity hash. Binary XML resolves these through an intern table, so
+     * the same few instances are written over and over.
+     */
+    private final String[] mNames = new String[CACHE_SIZE];
+    private final byte[][] mNameBytes = new byte[CACHE_SIZE][];
+    private final String[] mValues = new String[CACHE_SIZE];
+    private final byte[][] mValueBytes = new byte[CACHE_SIZE][];
+
+    private boolean mIndent;
+    private boolean mInTag;
+    private boolean mLineStart;
+    private int mNesting;
+
+    private static @NonNull byte[] ascii(@NonNull String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    void setOutput(@NonNull OutputStream out) {
+        mOut = Objects.requireNonNull(out);
+        mPos = 0;
+        mInTag = false;
+        mLineStart = true;
+        mNesting = 0;
+    }
+
+    void release() {
+        mOut = null;
+        Arrays.fill(mNames, null);
+        Arrays.fill(mNameBytes, null);
+        Arrays.fill(mValues, null);
+        Arrays.fill(mValueBytes, null);
+    }
+
+    /**
+     * Indent nested tags by four spaces per level, matching the
+     * {@code indent-output} feature of {@code FastXmlSerializer}.
+     */
+    void setIndent(boolean indent) {
+        mIndent = indent;
+    }
+
+    void flush() throws IOException {
+        if (mPos > 0) {
+            mOut.write(mBuffer, 0, mPos);
+            mPos = 0;
+        }
+        mOut.flush();
+    }
+
+    /**
+     * Make sure that at least the given number of bytes, which is always far
+     * smaller than our buffer, can be written into our buffer.
+     */
+    private void ensure(int count) throws IOException {
+        if (mBuffer.length - mPos < count) {
+            mOut.write(mBuffer, 0, mPos);
+            mPos = 0;
+        }
+    }
+
+    private void writeAscii(@NonNull String s) throws IOException {
+        final int len = s.length();
+        int i = 0;
+        while (i < len) {
+            if (mPos == mBuffer.length) ensure(1);
+            final int count = Math.min(len - i, mBuffer.length - mPos);
+            for (int end = i + count; i < end; i++) {
+                mBuffer[mPos++] = (byte) s.charAt(i);
+            }
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (mPos == mBuffer.length) ensure(1);
+        mBuffer[mPos++] = (byte) b;
+    }
+
+    private void writeBytes(@NonNull byte[] b) throws IOException {
+        ensure(b.length);
+        System.arraycopy(b, 0, mBuffer, mPos, b.length);
+        mPos += b.length;
+    }
+
+    /**
+     * Write the given string encoded as UTF-8, escaping any special characters
+     * when requested. Unpaired surrogates are replaced with {@code '?'}.
+     */
+    private void writeUtf8(@NonNull String s, boolean escape) throws IOException {
+        final int len = s.length();
+        for (int i = 0; i < len; i++) {
+            // Most text is plain ASCII, which is copied through in runs
+            i = copyPlain(s, i, len, escape);
+            if (i == len) break;
+
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                if (escape && c < ESCAPE_TABLE.length && ESCAPE_TABLE[c] != null) {
+                    writeBytes(ESCAPE_TABLE[c]);
+                } else {
+                    writeByte(c);
+                }
+            } else if (c < 0x800) {
+                ensure(2);
+                mBuffer[mPos++] = (byte) (0xc0 | (c >> 6));
+                mBuffer[mPos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (!Character.isSurrogate(c)) {
+                ensure(3);
+                mBuffer[mPos++] = (byte) (0xe0 | (c >> 12));
+                mBuffer[mPos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                mBuffer[mPos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                writeCodePoint(Character.toCodePoint(c, s.charAt(++i)));
+            } else {
+                writeByte('?');
+            }
+        }
+    }
+
+    /**
+     * Write the given string like {@link #writeUtf8}, reusing its encoded form
+     * from the given cache when the same instance was recently written.
+     */
+    private void writeCached(@NonNull String s, boolean escape, @NonNull String[] keys,
+            @NonNull byte[][] values) throws IOException {
+        final int index = System.identityHashCode(s) & (CACHE_SIZE - 1);
+        if (keys[index] == s) {
+            writeBytes(values[index]);
+        } else if (s.length() <= MAX_CACHED_LENGTH) {
+            // Escapes are at most six bytes long
+            ensure(s.length() * 6);
+            final int start = mPos;
+            writeUtf8(s, escape);
+            keys[index] = s;
+            values[index] = Arrays.copyOfRange(mBuffer, start, mPos);
+        } else {
+            writeUtf8(s, escape);
+        }
+    }
+
+    /**
+     * Copy the run of ASCII characters starting at the given index which can
+     * be written as-is straight into our buffer, as space allows.
+     *
+     * @return index of the first character which wasn't copied.
+     */
+    private int copyPlain(@NonNull String s, int i, int len, boolean escape) {
+        final byte[] buffer = mBuffer;
+        int pos = mPos;
+        final int end = Math.min(len, i + buffer.length - pos);
+        for (; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x80 || (escape && c < ESCAPE_TABLE.length && ESCAPE_TABLE[c] != null)) {
+                break;
+            }
+            buffer[pos++] = (byte) c;
+        }
+        mPos = pos;
+        return i;
+    }
+
+    /**
+     * Copy the run of ASCII bytes starting at the given index which can be
+     * written as-is straight into our buffer, as space allows.
+     *
+     * @return index of the first byte which wasn't copied.
+     */
+    private int copyPlain(@NonNull byte[] in, int i, int end) {
+        final byte[] buffer = mBuffer;
+        int pos = mPos;
+        end = Math.min(end, i + buffer.length - pos);
+        for (; i < end; i++) {
+            final byte b = in[i];
+            if (b < 0 || (b < ESCAPE_TABLE.length && ESCAPE_TABLE[b] != null)) {
+                break;
+            }
+            buffer[pos++] = b;
+        }
+        mPos = pos;
+        return i;
+    }
+
+    private void writeCodePoint(int cp) throws IOException {
+        ensure(4);
+        mBuffer[mPos++] = (byte) (0xf0 | (cp >> 18));
+        mBuffer[mPos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        mBuffer[mPos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        mBuffer[mPos++] = (byte) (0x80 | (cp & 0x3f));
+    }
+
+    /**
+     * Write the given <i>modified UTF-8</i> bytes re-encoded as standard UTF-8
+     * and escaped, which is the same as writing the string they decode to.
+     */
+    private void writeEscapedModifiedUtf8(@NonNull byte[] in, int off, int len)
+            throws IOException {
+        final int end = off + len;
+        int i = off;
+        while (i < end) {
+            // Most text is plain ASCII, which is copied through in runs
+            i = copyPlain(in, i, end);
+            if (i == end) break;
+
+            final int b = in[i];
+            if (b >= 0) {
+                if (b < ESCAPE_TABLE.length && ESCAPE_TABLE[b] != null) {
+                    writeBytes(ESCAPE_TABLE[b]);
+                } else {
+                    writeByte(b);
+                }
+                i++;
+            } else if ((b & 0xe0) == 0xc0) {
+                if (i + 1 >= end || (in[i + 1] & 0xc0) != 0x80) {
+                    throw new UTFDataFormatException("bad second byte at " + (i + 1 - off));
+                }
+                final int c = ((b & 0x1f) << 6) | (in[i + 1] & 0x3f);
+                if (c < 0x80) {
+                    // Overlong form, which is how U+0000 is always encoded
+                    if (c < ESCAPE_TABLE.length && ESCAPE_TABLE[c] != null) {
+                        writeBytes(ESCAPE_TABLE[c]);
+                    } else {
+                        writeByte(c);
+                    }
+                } else {
+                    ensure(2);
+                    mBuffer[mPos++] = (byte) b;
+                    mBuffer[mPos++] = in[i + 1];
+                }
+                i += 2;
+            } else if ((b & 0xf0) == 0xe0) {
+                final char c = decodeThreeBytes(in, i, end, off);
+                i += 3;
+                if (!Character.isSurrogate(c)) {
+                    ensure(3);
+                    mBuffer[mPos++] = (byte) b;
+                    mBuffer[mPos++] = in[i - 2];
+                    mBuffer[mPos++] = in[i - 1];
+                } else if (Character.isHighSurrogate(c) && i < end && (in[i] & 0xf0) == 0xe0
+                        && Character.isLowSurrogate(decodeThreeBytes(in, i, end, off))) {
+                    writeCodePoint(Character.toCodePoint(c, decodeThreeBytes(in, i, end, off)));
+                    i += 3;
+                } else {
+                    writeByte('?');
+                }
+            } else {
+                throw new UTFDataFormatException("bad byte at " + (i - off));
+            }
+        }
+    }
+
+    private static char decodeThreeBytes(@NonNull byte[] in, int i, int end, int off)
+            throws UTFDataFormatException {
+        if (i + 2 >= end || (in[i + 1] & 0xc0) != 0x80 || (in[i + 2] & 0xc0) != 0x80) {
+            throw new UTFDataFormatException("bad second or third byte at " + (i + 1 - off));
+        }
+        return (char) (((in[i] & 0x0f) << 12) | ((in[i + 1] & 0x3f) << 6) | (in[i + 2] & 0x3f));
+    }
+
+    /**
+     * Write the given value exactly as {@link Long#toString(long)} would.
+     */
+    private void writeDecimal(long value) throws IOException {
+        ensure(MAX_NUMBER_LENGTH);
+        // Work with negative values, which can represent every long
+        if (value < 0) {
+            mBuffer[mPos++] = '-';
+        } else {
+            value = -value;
+        }
+        int digits = 1;
+        for (long bound = -10; digits < 19 && value <= bound; bound *= 10) {
+            digits++;
+        }
+        int i = mPos + digits;
+        mPos = i;
+        // Most values fit in an int, where division is much cheaper
+        while (value < Integer.MIN_VALUE) {
+            mBuffer[--i] = (byte) ('0' - (value % 10));
+            value /= 10;
+        }
+        int v = (int) value;
+        do {
+            mBuffer[--i] = (byte) ('0' - (v % 10));
+            v /= 10;
+        } while (v != 0);
+    }
+
+    /**
+     * Write the given value exactly as {@link Long#toString(long, int)} would
+     * with a radix of 16.
+     */
+    private void writeHex(long value) throws IOException {
+        ensure(MAX_NUMBER_LENGTH);
+        if (value < 0) {
+            mBuffer[mPos++] = '-';
+            // Magnitude of Long.MIN_VALUE is still correct when unsigned
+            value = -value;
+        }
+        final int digits = Math.max(1, (67 - Long.numberOfLeadingZeros(value)) >> 2);
+        for (int i = mPos + digits - 1; i >= mPos; i--) {
+            mBuffer[i] = HEX_DIGITS[(int) value & 0x0f];
+            value >>>= 4;
+        }
+        mPos += digits;
+    }
+
+    private void writeIndent(int nesting) throws IOException {
+        final int count = Math.min(nesting * 4, MAX_INDENT);
+        ensure(count);
+        for (int i = 0; i < count; i++) {
+            mBuffer[mPos++] = ' ';
+        }
+    }
+
+    /**
+     * Finish the start tag which is still open, if any, before writing
+     * content.
+     */
+    private void closeStartTag() throws IOException {
+        if (mInTag) {
+            writeByte('>');
+            mInTag = false;
+        }
+    }
+
+    void startDocument() throws IOException {
+        writeBytes(DECLARATION);
+        mLineStart = true;
+    }
+
+    void endDocument() throws IOException {
+        flush();
+    }
+
+    void startTag(@NonNull String name) throws IOException {
+        if (mInTag) {
+            writeBytes(START_TAG_END);
+        }
+        if (mIndent) {
+            writeIndent(mNesting);
+        }
+        mNesting++;
+        writeByte('<');
+        writeCached(name, false, mNames, mNameBytes);
+        mInTag = true;
+        mLineStart = false;
+    }
+
+    void endTag(@NonNull String name) throws IOException {
+        mNesting--;
+        if (mInTag) {
+            writeBytes(EMPTY_TAG_END);
+        } else {
+            if (mIndent && mLineStart) {
+                writeIndent(mNesting);
+            }
+            writeBytes(END_TAG_START);
+            writeCached(name, false, mNames, mNameBytes);
+            writeBytes(START_TAG_END);
+        }
+        mLineStart = true;
+        mInTag = false;
+    }
+
+    private void startAttribute(@NonNull String name) throws IOException {
+        writeByte(' ');
+        writeCached(name, false, mNames, mNameBytes);
+        writeBytes(ATTRIBUTE_VALUE_START);
+    }
+
+    void attribute(@NonNull String name, @NonNull String value) throws IOException {
+        startAttribute(name);
+        writeUtf8(value, true);
+        writeByte('"');
+    }
+
+    /**
+     * Write an attribute whose value is likely to be written many times, such
+     * as one resolved through the intern table of binary XML.
+     */
+    void attributeInterned(@NonNull String name, @NonNull String value) throws IOException {
+        startAttribute(name);
+        writeCached(value, true, mValues, mValueBytes);
+        writeByte('"');
+    }
+
+    /**
+     * Write an attribute whose value is given as <i>modified UTF-8</i> bytes,
+     * without decoding them into a {@link String}.
+     */
+    void attributeModifiedUtf8(@NonNull String name, @NonNull byte[] value, int off, int len)
+            throws IOException {
+        startAttribute(name);
+        writeEscapedModifiedUtf8(value, off, len);
+        writeByte('"');
+    }
+
+    void attributeBytesHex(@NonNull String name, @NonNull byte[] value, int off, int len)
+            throws IOException {
+        startAttribute(name);
+        for (int i = off; i < off + len; i++) {
+            ensure(2);
+            mBuffer[mPos++] = HEX_DIGITS[(value[i] >>> 4) & 0x0f];
+            mBuffer[mPos++] = HEX_DIGITS[value[i] & 0x0f];
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Write an attribute whose value is the given bytes encoded as standard
+     * Base64 with padding and without line wrapping.
+     */
+    void attributeBytesBase64(@NonNull String name, @NonNull byte[] value, int off, int len)
+            throws IOException {
+        startAttribute(name);
+        final int end = off + len;
+        int i = off;
+        for (; i + 3 <= end; i += 3) {
+            final int bits = ((value[i] & 0xff) << 16) | ((value[i + 1] & 0xff) << 8)
+                    | (value[i + 2] & 0xff);
+            ensure(4);
+            mBuffer[mPos++] = BASE64_DIGITS[(bits >> 18) & 0x3f];
+            mBuffer[mPos++] = BASE64_DIGITS[(bits >> 12) & 0x3f];
+            mBuffer[mPos++] = BASE64_DIGITS[(bits >> 6) & 0x3f];
+            mBuffer[mPos++] = BASE64_DIGITS[bits & 0x3f];
+        }
+        if (i < end) {
+            final boolean two = (i + 1 < end);
+            final int bits = ((value[i] & 0xff) << 16) | (two ? (value[i + 1] & 0xff) << 8 : 0);
+            ensure(4);
+            mBuffer[mPos++] = BASE64_DIGITS[(bits >> 18) & 0x3f];
+            mBuffer[mPos++] = BASE64_DIGITS[(bits >> 12) & 0x3f];
+            mBuffer[mPos++] = two ? BASE64_DIGITS[(bits >> 6) & 0x3f] : (byte) '=';
+            mBuffer[mPos++] = '=';
+        }
+        writeByte('"');
+    }
+
+    void attributeLong(@NonNull String name, long value) throws IOException {
+        startAttribute(name);
+        writeDecimal(value);
+        writeByte('"');
+    }
+
+    void attributeLongHex(@NonNull String name, long value) throws IOException {
+        startAttribute(name);
+        writeHex(value);
+        writeByte('"');
+    }
+
+    void text(@NonNull String text) throws IOException {
+        closeStartTag();
+        writeUtf8(text, true);
+        if (mIndent) {
+            mLineStart = text.length() > 0 && text.charAt(text.length() - 1) == '\n';
+        }
+    }
+
+    /**
+     * Write text given as <i>modified UTF-8</i> bytes, without decoding them
+     * into a {@link String}.
+     */
+    void textModifiedUtf8(@NonNull byte[] text, int off, int len) throws IOException {
+        closeStartTag();
+        writeEscapedModifiedUtf8(text, off, len);
+        if (mIndent) {
+            mLineStart = len > 0 && text[off + len - 1] == '\n';
+        }
+    }
+
+    /**
+     * Write the given token content unescaped, wrapped in the given markup.
+     */
+    private void markup(@NonNull String prefix, @NonNull String text, @NonNull String suffix)
+            throws IOException {
+        closeStartTag();
+        writeAscii(prefix);
+        writeUtf8(text, false);
+        writeAscii(suffix);
+        mLineStart = false;
+    }
+
+    void cdsect(@NonNull String text) throws IOException {
+        markup("<![CDATA[", text, "]]>");
+    }
+
+    void entityRef(@NonNull String name) throws IOException {
+        markup("&", name, ";");
+    }
+
+    void processingInstruction(@NonNull String text) throws IOException {
+        markup("<?", text, "?>");
+    }
+
+    void comment(@NonNull String text) throws IOException {
+        markup("<!--", text, "-->");
+    }
+
+    void docdecl(@NonNull String text) throws IOException {
+        markup("<!DOCTYPE", text, ">");
+    }
+
+    void ignorableWhitespace(@NonNull String text) throws IOException {
+        closeStartTag();
+        writeUtf8(text, false);
+        if (mIndent) {
+            mLineStart = text.length() > 0 && text.charAt(text.length() - 1) == '\n';
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils.processor;
+
+import com.android.modules.utils.XmlRecord;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates an {@code XmlRecordCodec} for each class annotated with
+ * {@link XmlRecord}, which accesses fields directly instead of through
+ * reflection.
+ */
+@SupportedAnnotationTypes({
+        "com.android.modules.utils.XmlRecord",
+        "com.android.modules.utils.XmlRecord.Attribute",
+})
+public class XmlRecordProcessor extends AbstractProcessor {
+    /**
+     * Supported field types, along with the serializer and parser methods used
+     * to write and read them.
+     */
+    private enum Kind {
+        INT("attributeInt", "getAttributeInt"),
+        INT_HEX("attributeIntHex", "getAttributeIntHex"),
+        LONG("attributeLong", "getAttributeLong"),
+        LONG_HEX("attributeLongHex", "getAttributeLongHex"),
+        FLOAT("attributeFloat", "getAttributeFloat"),
+        DOUBLE("attributeDouble", "getAttributeDouble"),
+        BOOLEAN("attributeBoolean", "getAttributeBoolean"),
+        STRING("attribute", "getAttributeValue"),
+        STRING_INTERNED("attributeInterned", "getAttributeValue"),
+        BYTES_HEX("attributeBytesHex", "getAttributeBytesHex"),
+        BYTES_BASE64("attributeBytesBase64", "getAttributeBytesBase64");
+
+        final String writer;
+        final String reader;
+
+        Kind(String writer, String reader) {
+            this.writer = writer;
+            this.reader = reader;
+        }
+
+        boolean isNullable() {
+            return this == STRING || this == STRING_INTERNED
+                    || this == BYTES_HEX || this == BYTES_BASE64;
+        }
+    }
+
+    private static class Field {
+        final String field;
+        final String name;
+        final Kind kind;
+
+        Field(String field, String name, Kind kind) {
+            this.field = field;
+            this.name = name;
+            this.kind = kind;
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(XmlRecord.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@XmlRecord must be applied to a class");
+                continue;
+            }
+            final TypeElement type = (TypeElement) element;
+            final List<Field> fields = collectFields(type);
+            if (fields == null) continue;
+            try {
+                generate(type, fields);
+            } catch (IOException e) {
+                error(type, "Failed to generate codec: " + e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collect all fields of the given type annotated with
+     * {@link XmlRecord.Attribute}, or {@code null} when they're not usable.
+     */
+    private List<Field> collectFields(TypeElement type) {
+        boolean valid = true;
+        for (Element e = type; e.getKind() == ElementKind.CLASS; e = e.getEnclosingElement()) {
+            final TypeElement t = (TypeElement) e;
+            if (t.getModifiers().contains(Modifier.PRIVATE)
+                    || (t.getNestingKind() == NestingKind.MEMBER
+                            && !t.getModifiers().contains(Modifier.STATIC))
+                    || t.getNestingKind() == NestingKind.LOCAL
+                    || t.getNestingKind() == NestingKind.ANONYMOUS) {
+                error(type, "@XmlRecord classes must be static and accessible from their package");
+                valid = false;
+                break;
+            }
+        }
+
+        final List<Field> fields = new ArrayList<>();
+        final Set<String> names = new HashSet<>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            final XmlRecord.Attribute attr = field.getAnnotation(XmlRecord.Attribute.class);
+            if (attr == null) continue;
+
+            final Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)
+                    || modifiers.contains(Modifier.STATIC)) {
+                error(field, "@XmlRecord.Attribute fields must not be private, final or static");
+                valid = false;
+                continue;
+            }
+            if (!names.add(attr.value())) {
+                error(field, "Duplicate attribute name " + attr.value());
+                valid = false;
+                continue;
+            }
+            final Kind kind = kindOf(field.asType(), attr);
+            if (kind == null) {
+                error(field, "Unsupported combination of type " + field.asType()
+                        + " with hex=" + attr.hex() + " and interned=" + attr.interned());
+                valid = false;
+                continue;
+            }
+            fields.add(new Field(field.getSimpleName().toString(), attr.value(), kind));
+        }
+        return valid ? fields : null;
+    }
+
+    private static Kind kindOf(TypeMirror type, XmlRecord.Attribute attr) {
+        final boolean hex = attr.hex();
+        final boolean interned = attr.interned();
+        if (interned && hex) return null;
+        switch (type.getKind()) {
+            case INT:
+                return interned ? null : hex ? Kind.INT_HEX : Kind.INT;
+            case LONG:
+                return interned ? null : hex ? Kind.LONG_HEX : Kind.LONG;
+            case FLOAT:
+                return (interned || hex) ? null : Kind.FLOAT;
+            case DOUBLE:
+                return (interned || hex) ? null : Kind.DOUBLE;
+            case BOOLEAN:
+                return (interned || hex) ? null : Kind.BOOLEAN;
+            case ARRAY:
+                if (((ArrayType) type).getComponentType().getKind() != TypeKind.BYTE) return null;
+                return interned ? null : hex ? Kind.BYTES_HEX : Kind.BYTES_BASE64;
+            case DECLARED:
+                if (!type.toString().equals("java.lang.String") || hex) return null;
+                return interned ? Kind.STRING_INTERNED : Kind.STRING;
+            default:
+                return null;
+        }
+    }
+
+    private void generate(TypeElement type, List<Field> fields) throws IOException {
+        final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        final String recordName = type.getQualifiedName().toString();
+
+        // Nested classes are flattened, such that Outer.Inner becomes
+        // Outer_InnerXmlCodec
+        String codecName = type.getSimpleName().toString();
+        for (Element e = type.getEnclosingElement(); e.getKind() == ElementKind.CLASS;
+                e = e.getEnclosingElement()) {
+            codecName = e.getSimpleName() + "_" + codecName;
+        }
+        codecName += "XmlCodec";
+        final String qualifiedCodecName = pkg.isUnnamed() ? codecName
+                : pkg.getQualifiedName() + "." + codecName;
+
+        final String visibility = type.getModifiers().contains(Modifier.PUBLIC) ? "public " : "";
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler()
+                .createSourceFile(qualifiedCodecName, type).openWriter())) {
+            if (!pkg.isUnnamed()) {
+                out.println("package " + pkg.getQualifiedName() + ";");
+                out.println();
+            }
+            out.println("import com.android.modules.utils.TypedXmlPullParser;");
+            out.println("import com.android.modules.utils.TypedXmlSerializer;");
+            out.println("import com.android.modules.utils.XmlRecordCodec;");
+            out.println();
+            out.println("import org.xmlpull.v1.XmlPullParserException;");
+            out.println();
+            out.println("import java.io.IOException;");
+            out.println();
+            out.println("/**");
+            out.println(" * Generated {@link XmlRecordCodec} for {@link " + recordName + "}.");
+            out.println(" */");
+            out.println(visibility + "final class " + codecName
+                    + " implements XmlRecordCodec<" + recordName + "> {");
+            out.println("    " + visibility + "static final " + codecName + " INSTANCE = new "
+                    + codecName + "();");
+            out.println();
+            out.println("    private static final String[] NAMES = new String[] {");
+            for (Field field : fields) {
+                out.println("        " + literal(field.name) + ",");
+            }
+            out.println("    };");
+            out.println();
+            out.println("    private " + codecName + "() {");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public void writeAttributes(TypedXmlSerializer out, "
+                    + recordName + " record)");
+            out.println("            throws IOException {");
+            for (Field field : fields) {
+                final String write = "out." + field.kind.writer + "(null, "
+                        + literal(field.name) + ", record." + field.field + ");";
+                if (field.kind.isNullable()) {
+                    out.println("        if (record." + field.field + " != null) {");
+                    out.println("            " + write);
+                    out.println("        }");
+                } else {
+                    out.println("        " + write);
+                }
+            }
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public void readAttributes(TypedXmlPullParser in, "
+                    + recordName + " record)");
+            out.println("            throws XmlPullParserException {");
+            out.println("        final int count = in.getAttributeCount();");
+            out.println("        int next = 0;");
+            out.println("        for (int i = 0; i < count; i++) {");
+            out.println("            final String name = in.getAttributeName(i);");
+            out.println("            final int field;");
+            out.println("            if (next < NAMES.length && NAMES[next].equals(name)) {");
+            out.println("                field = next;");
+            out.println("            } else {");
+            out.println("                field = indexOf(name);");
+            out.println("                if (field == -1) continue;");
+            out.println("            }");
+            out.println("            switch (field) {");
+            for (int i = 0; i < fields.size(); i++) {
+                final Field field = fields.get(i);
+                out.println("                case " + i + ":");
+                out.println("                    record." + field.field + " = in."
+                        + field.kind.reader + "(i);");
+                out.println("                    break;");
+            }
+            out.println("            }");
+            out.println("            next = field + 1;");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+
+            out.println("    private static int indexOf(String name) {");
+            out.println("        switch (name) {");
+            for (int i = 0; i < fields.size(); i++) {
+                out.println("            case " + literal(fields.get(i).name) + ":");
+                out.println("                return " + i + ";");
+            }
+            out.println("            default:");
+            out.println("                return -1;");
+            out.println("        }");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    private String literal(String value) {
+        return processingEnv.getElementUtils().getConstantExpression(value);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.xmlpull.v1.XmlPullParser.START_TAG;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Coverage for replaying, repairing and compacting a {@link BinaryXmlJournal}.
+ */
+@RunWith(JUnit4.class)
+@SmallTest
+public class BinaryXmlJournalTest extends TestCase {
+    private static final int RECORD_HEADER_SIZE = 9;
+
+    private File mDir;
+    private File mBaseFile;
+    private File mJournalFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = Files.createTempDirectory("journal").toFile();
+        mBaseFile = new File(mDir, "base.abx");
+        mJournalFile = new File(mDir, "base.abxj");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mJournalFile.delete();
+        new File(mJournalFile.getPath() + ".new").delete();
+        mBaseFile.delete();
+        new File(mBaseFile.getPath() + ".new").delete();
+        mDir.delete();
+    }
+
+    private BinaryXmlJournal newJournal() {
+        // Compaction is only ever requested explicitly
+        return new BinaryXmlJournal(mBaseFile, mJournalFile, "packages", "name",
+                Long.MAX_VALUE, (r) -> {
+                    throw new AssertionError("Unexpected compaction");
+                });
+    }
+
+    private BinaryXmlJournal load() throws Exception {
+        final BinaryXmlJournal journal = newJournal();
+        journal.load();
+        return journal;
+    }
+
+    private static void upsert(BinaryXmlJournal journal, String key, int version)
+            throws IOException {
+        journal.upsert("package", key, (out) -> {
+            out.attributeInt(null, "version", version);
+            out.startTag(null, "perm");
+            out.attribute(null, "name", "perm." + key);
+            out.endTag(null, "perm");
+        });
+    }
+
+    /**
+     * Describe every element of the given journal as {@code key=version}.
+     */
+    private static List<String> read(BinaryXmlJournal journal) throws Exception {
+        final List<String> result = new ArrayList<>();
+        journal.read((in) -> {
+            assertEquals("package", in.getName());
+            final String key = in.getAttributeValue(null, "name");
+            result.add(key + "=" + in.getAttributeInt(null, "version"));
+            assertEquals(START_TAG, in.nextTag());
+            assertEquals("perm." + key, in.getAttributeValue(null, "name"));
+        });
+        return result;
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        BinaryXmlJournal journal = load();
+        upsert(journal, "a", 1);
+        upsert(journal, "b", 1);
+        upsert(journal, "c", 1);
+        upsert(journal, "a", 2);
+        journal.remove("package", "b");
+        journal.remove("package", "missing");
+        assertEquals(Arrays.asList("a=2", "c=1"), read(journal));
+        journal.close();
+        assertFalse(mBaseFile.exists());
+
+        journal = load();
+        assertEquals(Arrays.asList("a=2", "c=1"), read(journal));
+        upsert(journal, "d", 1);
+        journal.close();
+
+        journal = load();
+        assertEquals(Arrays.asList("a=2", "c=1", "d=1"), read(journal));
+        journal.close();
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        BinaryXmlJournal journal = load();
+        upsert(journal, "a", 1);
+        upsert(journal, "b", 1);
+        journal.remove("package", "a");
+        journal.compact();
+        assertTrue(mBaseFile.exists());
+        assertEquals(BinaryXmlJournal.PROTOCOL_MAGIC_JOURNAL.length, mJournalFile.length());
+        upsert(journal, "c", 1);
+        journal.close();
+
+        journal = load();
+        assertEquals(Arrays.asList("b=1", "c=1"), read(journal));
+        journal.close();
+    }
+
+    @Test
+    public void testTornRecordTruncated() throws Exception {
+        BinaryXmlJournal journal = load();
+        upsert(journal, "a", 1);
+        upsert(journal, "b", 1);
+        final long valid = mJournalFile.length();
+        upsert(journal, "c", 1);
+        journal.close();
+
+        // Drop the tail of the last record, as if interrupted mid-append,
+        // and then leave only part of its header
+        for (long length : new long[] { mJournalFile.length() - 1, valid + 3 }) {
+            try (RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw")) {
+                file.setLength(length);
+            }
+            journal = load();
+            assertEquals(Arrays.asList("a=1", "b=1"), read(journal));
+            assertEquals(valid, mJournalFile.length());
+            journal.close();
+        }
+
+        // Records appended after the repair are replayed
+        journal = load();
+        upsert(journal, "d", 1);
+        journal.close();
+        journal = load();
+        assertEquals(Arrays.asList("a=1", "b=1", "d=1"), read(journal));
+        journal.close();
+    }
+
+    @Test
+    public void testChecksumMismatchDiscarded() throws Exception {
+        BinaryXmlJournal journal = load();
+        upsert(journal, "a", 1);
+        final long valid = mJournalFile.length();
+        upsert(journal, "b", 1);
+        upsert(journal, "c", 1);
+        journal.close();
+
+        // Flip the last byte of the payload of the second record
+        try (RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw")) {
+            file.seek(valid + 1);
+            final long pos = valid + RECORD_HEADER_SIZE + file.readInt() - 1;
+            file.seek(pos);
+            final int b = file.read();
+            file.seek(pos);
+            file.write(b ^ 0xff);
+        }
+
+        // Nothing beyond the damaged record can be trusted
+        journal = load();
+        assertEquals(Arrays.asList("a=1"), read(journal));
+        assertEquals(valid, mJournalFile.length());
+        journal.close();
+    }
+
+    @Test
+    public void testEmptyJournal() throws Exception {
+        BinaryXmlJournal journal = load();
+        upsert(journal, "a", 1);
+        journal.compact();
+        journal.close();
+
+        // Crashed before the magic of the new journal was durable
+        try (RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw")) {
+            file.setLength(0);
+        }
+        journal = load();
+        assertEquals(Arrays.asList("a=1"), read(journal));
+        assertEquals(BinaryXmlJournal.PROTOCOL_MAGIC_JOURNAL.length, mJournalFile.length());
+        upsert(journal, "b", 1);
+        journal.close();
+
+        journal = load();
+        assertEquals(Arrays.asList("a=1", "b=1"), read(journal));
+        journal.close();
+    }
+
+    @Test
+    public void testCompactNotLoaded() throws Exception {
+        BinaryXmlJournal journal = load();
+        upsert(journal, "a", 1);
+        journal.compact();
+        upsert(journal, "b", 1);
+        journal.close();
+        final byte[] base = Files.readAllBytes(mBaseFile.toPath());
+        final byte[] records = Files.readAllBytes(mJournalFile.toPath());
+
+        // Neither a journal which was never loaded nor one which was closed
+        // may replace the base with its empty contents
+        journal = newJournal();
+        try {
+            journal.compact();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        journal = load();
+        journal.close();
+        try {
+            journal.compact();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertArrayEquals(base, Files.readAllBytes(mBaseFile.toPath()));
+        assertArrayEquals(records, Files.readAllBytes(mJournalFile.toPath()));
+        assertFalse(new File(mBaseFile.getPath() + ".new").exists());
+    }
+
+    @Test
+    public void testCompactDuringUpserts() throws Exception {
+        final int count = 200;
+        final BinaryXmlJournal journal = load();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < count; i++) {
+                    upsert(journal, "p" + i, 1);
+                    upsert(journal, "p" + (i / 2), 2);
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            journal.compact();
+        }
+        writer.join();
+        assertNull(failure.get());
+        journal.compact();
+        assertEquals(BinaryXmlJournal.PROTOCOL_MAGIC_JOURNAL.length, mJournalFile.length());
+        final List<String> expected = read(journal);
+        assertEquals(count, expected.size());
+        journal.close();
+
+        // Every record made while compactions were running survives, either
+        // in the base or carried over into the new journal
+        final BinaryXmlJournal reloaded = load();
+        assertEquals(expected, read(reloaded));
+        for (int i = 0; i < count; i++) {
+            assertEquals("p" + i + "=" + ((i < count / 2) ? 2 : 1), expected.get(i));
+        }
+        reloaded.close();
+    }
+
+    @Test
+    public void testCarriedOverRecords() throws Exception {
+        final int count = 200;
+        final BinaryXmlJournal journal = load();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread compactor = new Thread(() -> {
+            try {
+                journal.compact();
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        for (int i = 0; i < count; i++) {
+            upsert(journal, "p" + i, 1);
+        }
+        compactor.start();
+        for (int i = 0; i < count; i++) {
+            upsert(journal, "p" + i, 2);
+        }
+        compactor.join();
+        assertNull(failure.get());
+        journal.close();
+
+        // Reload without compacting again, so that any upserts racing with
+        // the compaction can only come from the journal
+        final BinaryXmlJournal reloaded = load();
+        final List<String> actual = read(reloaded);
+        assertEquals(count, actual.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("p" + i + "=2", actual.get(i));
+        }
+        reloaded.close();
+    }
+}
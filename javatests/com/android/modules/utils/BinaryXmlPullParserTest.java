@@ -0,0 +1,480 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.xmlpull.v1.XmlPullParser.END_DOCUMENT;
+import static org.xmlpull.v1.XmlPullParser.END_TAG;
+import static org.xmlpull.v1.XmlPullParser.START_TAG;
+import static org.xmlpull.v1.XmlPullParser.TEXT;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.modules.utils.BinaryXmlPullParser.EventBatch;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Coverage for the bulk and allocation-free reading APIs of
+ * {@link BinaryXmlPullParser}, which are checked against the regular
+ * event-at-a-time API.
+ */
+@RunWith(JUnit4.class)
+@SmallTest
+public class BinaryXmlPullParserTest extends TestCase {
+    private static final int CHILD_COUNT = 12;
+
+    private static final int[] CAPACITIES = { 1, 2, 3, 7, 64, 1024 };
+
+    private static byte[] write(int version, boolean checksum) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setProtocolVersion(version);
+        out.setFeature(BinaryXmlSerializer.FEATURE_VARINT, version > 0);
+        out.setFeature(BinaryXmlSerializer.FEATURE_CHECKSUM, checksum);
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        out.startDocument(null, true);
+        out.startTag(null, "root");
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            out.startTag(null, "child");
+            out.attributeInterned(null, "name", "com.example." + (i % 3));
+            out.attribute(null, "label", "Label é中 😀 " + i);
+            out.attributeInt(null, "int", -i);
+            out.attributeLong(null, "long", 1_700_000_000_000L + i);
+            out.attributeBoolean(null, "bool", (i % 2) == 0);
+            out.attributeBytesHex(null, "hex", new byte[] { (byte) i, 0x7f });
+            if (i % 3 == 0) {
+                // Split text regions are reported as a single event
+                out.text("text ");
+                out.cdsect(String.valueOf(i));
+            } else if (i % 3 == 1) {
+                out.startTag(null, "empty");
+                out.endTag(null, "empty");
+            }
+            out.endTag(null, "child");
+        }
+        out.endTag(null, "root");
+        out.endDocument();
+        return os.toByteArray();
+    }
+
+    private static BinaryXmlPullParser open(byte[] data, boolean lazy) throws Exception {
+        final BinaryXmlPullParser in = new BinaryXmlPullParser();
+        in.setFeature(BinaryXmlPullParser.FEATURE_LAZY_ATTRIBUTES, lazy);
+        in.setInput(new ByteArrayInputStream(data), StandardCharsets.UTF_8.name());
+        return in;
+    }
+
+    private static String describe(int type, String name, String text, int depth) {
+        return type + "/" + name + "/" + text + "@" + depth;
+    }
+
+    /**
+     * Describe every event of the given document as read by {@link
+     * BinaryXmlPullParser#next()}.
+     */
+    private static List<String> readEvents(byte[] data) throws Exception {
+        final BinaryXmlPullParser in = open(data, false);
+        final List<String> events = new ArrayList<>();
+        int type;
+        do {
+            type = in.next();
+            final StringBuilder event = new StringBuilder(describe(
+                    type, in.getName(), (type == TEXT) ? in.getText() : null, in.getDepth()));
+            for (int i = 0; i < in.getAttributeCount(); i++) {
+                event.append(' ').append(in.getAttributeName(i))
+                        .append('=').append(in.getAttributeValue(i));
+            }
+            events.add(event.toString());
+        } while (type != END_DOCUMENT);
+        return events;
+    }
+
+    /**
+     * Describe every event of the given document as read by {@link
+     * BinaryXmlPullParser#nextEvents}, verifying the batch boundaries.
+     */
+    private static List<String> readBatches(byte[] data, int capacity, boolean lazy)
+            throws Exception {
+        final BinaryXmlPullParser in = open(data, lazy);
+        final EventBatch batch = new EventBatch(capacity);
+        final List<String> events = new ArrayList<>();
+        while (true) {
+            final int count = in.nextEvents(batch);
+            assertEquals(count, batch.size());
+            if (count == 0) break;
+            // Only the batch reaching the end of the document may be short
+            final boolean last = batch.getEventType(count - 1) == END_DOCUMENT;
+            assertTrue(last || count == capacity);
+            for (int event = 0; event < count; event++) {
+                final int type = batch.getEventType(event);
+                assertTrue(type != END_DOCUMENT || event == count - 1);
+                final StringBuilder description = new StringBuilder(describe(type,
+                        batch.getName(event), batch.getText(event), batch.getDepth(event)));
+                for (int i = 0; i < batch.getAttributeCount(event); i++) {
+                    description.append(' ').append(batch.getAttributeName(event, i))
+                            .append('=').append(batch.getAttributeValue(event, i));
+                }
+                events.add(description.toString());
+            }
+            // The parser is left on the last event of the batch
+            assertEquals(batch.getEventType(count - 1), in.getEventType());
+            assertEquals(batch.getDepth(count - 1), in.getDepth());
+        }
+        assertEquals(END_DOCUMENT, in.getEventType());
+        assertEquals(0, in.nextEvents(batch));
+        return events;
+    }
+
+    @Test
+    public void testNextEventsMatchesNext() throws Exception {
+        for (int version = 0; version <= 1; version++) {
+            for (boolean checksum : new boolean[] { false, true }) {
+                final byte[] data = write(version, checksum);
+                final List<String> expected = readEvents(data);
+                for (int capacity : CAPACITIES) {
+                    for (boolean lazy : new boolean[] { false, true }) {
+                        assertEquals("version " + version + " checksum " + checksum
+                                + " capacity " + capacity + " lazy " + lazy,
+                                expected, readBatches(data, capacity, lazy));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNextEventsEndDocumentMidBatch() throws Exception {
+        final byte[] data = write(1, true);
+        final int total = readEvents(data).size();
+
+        final BinaryXmlPullParser in = open(data, false);
+        final EventBatch batch = new EventBatch(total + 10);
+        assertEquals(total, in.nextEvents(batch));
+        assertEquals(START_TAG, batch.getEventType(0));
+        assertEquals("root", batch.getName(0));
+        assertEquals(1, batch.getDepth(0));
+        assertEquals(END_TAG, batch.getEventType(total - 2));
+        assertEquals("root", batch.getName(total - 2));
+        assertEquals(END_DOCUMENT, batch.getEventType(total - 1));
+        assertEquals(0, batch.getDepth(total - 1));
+
+        // Once the end has been returned, nothing more is read
+        assertEquals(0, in.nextEvents(batch));
+        assertEquals(0, batch.size());
+        assertEquals(0, in.nextEvents(batch));
+    }
+
+    @Test
+    public void testNextEventsCapacityOne() throws Exception {
+        final BinaryXmlPullParser in = open(write(0, false), true);
+        final EventBatch batch = new EventBatch(1);
+        assertEquals(1, in.nextEvents(batch));
+        assertEquals("root", batch.getName(0));
+        assertEquals(0, batch.getAttributeCount(0));
+
+        // Attributes of the previous batch are dropped when refilled
+        assertEquals(1, in.nextEvents(batch));
+        assertEquals("child", batch.getName(0));
+        assertEquals(6, batch.getAttributeCount(0));
+        assertEquals("Label é中 😀 0", batch.getAttributeValue(0,
+                batch.getAttributeIndex(0, "label")));
+        assertEquals(1, in.nextEvents(batch));
+        assertEquals(TEXT, batch.getEventType(0));
+        assertEquals("text 0", batch.getText(0));
+        assertEquals(0, batch.getAttributeCount(0));
+
+        try {
+            batch.getAttributeName(0, 0);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        try {
+            new EventBatch(0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testNextEventsTypedAttributes() throws Exception {
+        for (boolean lazy : new boolean[] { false, true }) {
+            final BinaryXmlPullParser in = open(write(1, false), lazy);
+            final EventBatch batch = new EventBatch(1024);
+            in.nextEvents(batch);
+            int child = 0;
+            for (int event = 0; event < batch.size(); event++) {
+                if (!"child".equals(batch.getName(event))
+                        || batch.getEventType(event) != START_TAG) {
+                    continue;
+                }
+                assertEquals(-child, batch.getAttributeInt(event,
+                        batch.getAttributeIndex(event, "int")));
+                assertEquals(1_700_000_000_000L + child, batch.getAttributeLong(event,
+                        batch.getAttributeIndex(event, "long")));
+                assertEquals((child % 2) == 0, batch.getAttributeBoolean(event,
+                        batch.getAttributeIndex(event, "bool")));
+                assertArrayEquals(new byte[] { (byte) child, 0x7f },
+                        batch.getAttributeBytesHex(event,
+                                batch.getAttributeIndex(event, "hex")));
+                assertEquals(-1, batch.getAttributeIndex(event, "missing"));
+                child++;
+            }
+            assertEquals(CHILD_COUNT, child);
+        }
+    }
+
+    @Test
+    public void testNextEventsLazyAttributesSpanBuffers() throws Exception {
+        // Enough raw values to outgrow the initial storage of the batch
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        out.startDocument(null, true);
+        out.startTag(null, "root");
+        for (int i = 0; i < 64; i++) {
+            out.startTag(null, "child");
+            out.attribute(null, "value", "value é中 " + i + " of a reasonable length");
+            out.endTag(null, "child");
+        }
+        out.endTag(null, "root");
+        out.endDocument();
+
+        final BinaryXmlPullParser in = open(os.toByteArray(), true);
+        final EventBatch batch = new EventBatch(1024);
+        in.nextEvents(batch);
+        int child = 0;
+        for (int event = 0; event < batch.size(); event++) {
+            if (batch.getEventType(event) == START_TAG && "child".equals(batch.getName(event))) {
+                assertEquals("value é中 " + child + " of a reasonable length",
+                        batch.getAttributeValue(event, 0));
+                child++;
+            }
+        }
+        assertEquals(64, child);
+    }
+
+    @Test
+    public void testNextEventsLazyDefersDecoding() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        out.startDocument(null, true);
+        out.startTag(null, "root");
+        out.attribute(null, "bad", "Xbad");
+        out.attributeInt(null, "good", 42);
+        out.endTag(null, "root");
+        out.endDocument();
+
+        // Corrupt the string value into invalid modified UTF-8
+        final byte[] data = os.toByteArray();
+        final byte[] target = "Xbad".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i <= data.length - target.length; i++) {
+            if (data[i] == target[0] && data[i + 1] == target[1]
+                    && data[i + 2] == target[2] && data[i + 3] == target[3]) {
+                data[i] = (byte) 0xff;
+            }
+        }
+
+        // Eager decoding rejects the value while reading the batch
+        try {
+            open(data, false).nextEvents(new EventBatch(4));
+            fail();
+        } catch (IOException expected) {
+        }
+
+        // Lazy decoding only rejects it once requested
+        final EventBatch batch = new EventBatch(4);
+        assertEquals(3, open(data, true).nextEvents(batch));
+        assertEquals(2, batch.getAttributeCount(0));
+        assertEquals(42, batch.getAttributeInt(0, 1));
+        try {
+            batch.getAttributeValue(0, 0);
+            fail();
+        } catch (UncheckedIOException expected) {
+        }
+    }
+
+    private static final byte[] BYTES = { 1, 2, 3, 4, 5 };
+
+    /**
+     * Open a document whose root element has byte values stored both as raw
+     * bytes and as strings which need to be decoded.
+     */
+    private static BinaryXmlPullParser openBytes(boolean lazy) throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        out.startDocument(null, true);
+        out.startTag(null, "root");
+        out.attributeBytesHex(null, "hex", BYTES);
+        out.attributeBytesBase64(null, "base64", BYTES);
+        out.attributeBytesHex(null, "empty", new byte[0]);
+        out.attribute(null, "hexString", "0102030405");
+        out.attribute(null, "base64String", "AQIDBAU=");
+        out.attribute(null, "invalid", "!!!!");
+        out.endTag(null, "root");
+        out.endDocument();
+
+        final BinaryXmlPullParser in = open(os.toByteArray(), lazy);
+        assertEquals(START_TAG, in.next());
+        return in;
+    }
+
+    private static int getLength(TypedXmlPullParser in, int index, boolean hex)
+            throws XmlPullParserException {
+        return hex ? in.getAttributeBytesHexLength(index)
+                : in.getAttributeBytesBase64Length(index);
+    }
+
+    private static int read(TypedXmlPullParser in, int index, boolean hex, byte[] dst, int off)
+            throws XmlPullParserException {
+        return hex ? in.readAttributeBytesHex(index, dst, off)
+                : in.readAttributeBytesBase64(index, dst, off);
+    }
+
+    private static int read(TypedXmlPullParser in, int index, boolean hex, ByteBuffer dst)
+            throws XmlPullParserException {
+        return hex ? in.readAttributeBytesHex(index, dst)
+                : in.readAttributeBytesBase64(index, dst);
+    }
+
+    @Test
+    public void testReadAttributeBytesArray() throws Exception {
+        for (boolean lazy : new boolean[] { false, true }) {
+            final BinaryXmlPullParser in = openBytes(lazy);
+            for (String name : new String[] { "hex", "base64", "hexString", "base64String" }) {
+                final int index = in.getAttributeIndex(null, name);
+                final boolean hex = name.startsWith("hex");
+                assertEquals(BYTES.length, getLength(in, index, hex));
+
+                // Surrounding bytes are left untouched
+                final byte[] dst = new byte[BYTES.length + 4];
+                Arrays.fill(dst, (byte) 0xee);
+                assertEquals(BYTES.length, read(in, index, hex, dst, 3));
+                assertArrayEquals(new byte[] {
+                        (byte) 0xee, (byte) 0xee, (byte) 0xee, 1, 2, 3, 4, 5, (byte) 0xee },
+                        dst);
+
+                // Values which don't fit are rejected without copying anything
+                for (int off : new int[] { 5, dst.length, -1 }) {
+                    final byte[] small = new byte[dst.length];
+                    try {
+                        read(in, index, hex, small, off);
+                        fail(name + " at " + off);
+                    } catch (IndexOutOfBoundsException expected) {
+                    }
+                    assertArrayEquals(new byte[dst.length], small);
+                }
+                try {
+                    read(in, index, hex, new byte[BYTES.length - 1], 0);
+                    fail(name);
+                } catch (IndexOutOfBoundsException expected) {
+                }
+
+                // Values remain readable after being copied, and can still be
+                // copied once decoded into an array
+                assertArrayEquals(BYTES, hex ? in.getAttributeBytesHex(index)
+                        : in.getAttributeBytesBase64(index));
+                final byte[] copy = new byte[BYTES.length + 1];
+                assertEquals(BYTES.length, read(in, index, hex, copy, 1));
+                assertArrayEquals(new byte[] { 0, 1, 2, 3, 4, 5 }, copy);
+            }
+
+            final int empty = in.getAttributeIndex(null, "empty");
+            assertEquals(0, in.getAttributeBytesHexLength(empty));
+            assertEquals(0, in.readAttributeBytesHex(empty, new byte[0], 0));
+        }
+    }
+
+    @Test
+    public void testReadAttributeBytesBuffer() throws Exception {
+        for (boolean lazy : new boolean[] { false, true }) {
+            final BinaryXmlPullParser in = openBytes(lazy);
+            for (String name : new String[] { "hex", "base64", "hexString", "base64String" }) {
+                final int index = in.getAttributeIndex(null, name);
+                final boolean hex = name.startsWith("hex");
+                for (ByteBuffer dst : new ByteBuffer[] {
+                        ByteBuffer.allocate(16), ByteBuffer.allocateDirect(16) }) {
+                    dst.position(3);
+                    assertEquals(BYTES.length, read(in, index, hex, dst));
+                    assertEquals(3 + BYTES.length, dst.position());
+                    for (int i = 0; i < BYTES.length; i++) {
+                        assertEquals(BYTES[i], dst.get(3 + i));
+                    }
+
+                    // Values which don't fit leave the buffer unchanged
+                    dst.limit(dst.position() + BYTES.length - 1);
+                    try {
+                        read(in, index, hex, dst);
+                        fail(name);
+                    } catch (BufferOverflowException expected) {
+                    }
+                    assertEquals(3 + BYTES.length, dst.position());
+                    for (int i = dst.position(); i < dst.limit(); i++) {
+                        assertEquals(0, dst.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadAttributeBytesInvalid() throws Exception {
+        for (boolean lazy : new boolean[] { false, true }) {
+            final BinaryXmlPullParser in = openBytes(lazy);
+            final int index = in.getAttributeIndex(null, "invalid");
+            for (boolean hex : new boolean[] { true, false }) {
+                try {
+                    getLength(in, index, hex);
+                    fail();
+                } catch (XmlPullParserException expected) {
+                }
+                final byte[] dst = new byte[16];
+                try {
+                    read(in, index, hex, dst, 0);
+                    fail();
+                } catch (XmlPullParserException expected) {
+                }
+                final ByteBuffer buffer = ByteBuffer.allocate(16);
+                try {
+                    read(in, index, hex, buffer);
+                    fail();
+                } catch (XmlPullParserException expected) {
+                }
+                assertArrayEquals(new byte[16], dst);
+                assertEquals(0, buffer.position());
+            }
+        }
+    }
+}
@@ -0,0 +1,646 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.xmlpull.v1.XmlPullParser.END_DOCUMENT;
+import static org.xmlpull.v1.XmlPullParser.END_TAG;
+import static org.xmlpull.v1.XmlPullParser.START_TAG;
+import static org.xmlpull.v1.XmlPullParser.TEXT;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Round-trip and cross-version coverage for the binary XML wire format,
+ * including every combination of the optional serializer features.
+ */
+@RunWith(JUnit4.class)
+@SmallTest
+public class BinaryXmlTest extends TestCase {
+    private static final int VERSION_1 = 1 << 0;
+    private static final int VARINT = 1 << 1;
+    private static final int COMPRESSION = 1 << 2;
+    private static final int INDEX = 1 << 3;
+    private static final int CHECKSUM = 1 << 4;
+    private static final int ALL = (1 << 5) - 1;
+
+    private static final int CHILD_COUNT = 24;
+
+    private static final int[] INTS = {
+            0, 1, -1, 63, -64, 1_000_000, Integer.MIN_VALUE, Integer.MAX_VALUE };
+    private static final long[] LONGS = {
+            0L, -1L, 1_700_000_000_000L, Long.MIN_VALUE, Long.MAX_VALUE };
+
+    private static boolean isValid(int features) {
+        if ((features & VARINT) != 0 && (features & VERSION_1) == 0) return false;
+        if ((features & INDEX) != 0 && (features & COMPRESSION) != 0) return false;
+        return true;
+    }
+
+    private static BinaryXmlSerializer newSerializer(int features) {
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setProtocolVersion(((features & VERSION_1) != 0) ? 1 : 0);
+        out.setFeature(BinaryXmlSerializer.FEATURE_VARINT, (features & VARINT) != 0);
+        out.setFeature(BinaryXmlSerializer.FEATURE_COMPRESSION, (features & COMPRESSION) != 0);
+        out.setFeature(BinaryXmlSerializer.FEATURE_INDEX, (features & INDEX) != 0);
+        out.setFeature(BinaryXmlSerializer.FEATURE_CHECKSUM, (features & CHECKSUM) != 0);
+        return out;
+    }
+
+    /**
+     * Text which spans several tokens, including multi-byte characters and a
+     * surrogate pair straddling the first token boundary.
+     */
+    private static String newLongText() {
+        final StringBuilder builder = new StringBuilder();
+        while (builder.length() < 65_534) {
+            builder.append('a');
+        }
+        builder.append("😀");
+        while (builder.length() < 200_000) {
+            builder.append("é中x");
+        }
+        return builder.toString();
+    }
+
+    private static void writeDocument(TypedXmlSerializer out, String longText)
+            throws IOException {
+        out.startDocument(null, true);
+        out.startTag(null, "root");
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            out.startTag(null, "child");
+            out.attributeInterned(null, "name", "com.example." + (i % 4));
+            out.attribute(null, "label", "Label é中 😀 " + i);
+            out.attributeInt(null, "int", INTS[i % INTS.length]);
+            out.attributeIntHex(null, "intHex", INTS[i % INTS.length]);
+            out.attributeLong(null, "long", LONGS[i % LONGS.length]);
+            out.attributeLongHex(null, "longHex", LONGS[i % LONGS.length]);
+            out.attributeFloat(null, "float", i + 0.5f);
+            out.attributeDouble(null, "double", -i / 3d);
+            out.attributeBoolean(null, "bool", (i % 2) == 0);
+            out.attributeBytesHex(null, "hex", new byte[] { (byte) i, 0x7f });
+            out.attributeBytesBase64(null, "base64", new byte[] { (byte) -i, 1, 2 });
+            out.startTag(null, "grandchild");
+            out.text("text " + i);
+            out.endTag(null, "grandchild");
+            out.endTag(null, "child");
+        }
+        if (longText != null) {
+            out.startTag(null, "long");
+            out.text(longText);
+            out.endTag(null, "long");
+        }
+        out.endTag(null, "root");
+        out.endDocument();
+    }
+
+    private static byte[] write(int features, String longText) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = newSerializer(features);
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        writeDocument(out, longText);
+        return os.toByteArray();
+    }
+
+    private static void assertNext(TypedXmlPullParser in, int type, String name)
+            throws Exception {
+        assertEquals(type, in.next());
+        assertEquals(name, in.getName());
+    }
+
+    private static void verifyChild(TypedXmlPullParser in, int i) throws Exception {
+        assertEquals(2, in.getDepth());
+        assertEquals(11, in.getAttributeCount());
+        assertEquals("com.example." + (i % 4), in.getAttributeValue(null, "name"));
+        assertEquals("Label é中 😀 " + i, in.getAttributeValue(null, "label"));
+        assertEquals(INTS[i % INTS.length], in.getAttributeInt(null, "int"));
+        assertEquals(INTS[i % INTS.length], in.getAttributeIntHex(null, "intHex"));
+        assertEquals(LONGS[i % LONGS.length], in.getAttributeLong(null, "long"));
+        assertEquals(LONGS[i % LONGS.length], in.getAttributeLongHex(null, "longHex"));
+        assertEquals(i + 0.5f, in.getAttributeFloat(null, "float"), 0f);
+        assertEquals(-i / 3d, in.getAttributeDouble(null, "double"), 0d);
+        assertEquals((i % 2) == 0, in.getAttributeBoolean(null, "bool"));
+        assertArrayEquals(new byte[] { (byte) i, 0x7f },
+                in.getAttributeBytesHex(null, "hex"));
+        assertArrayEquals(new byte[] { (byte) -i, 1, 2 },
+                in.getAttributeBytesBase64(null, "base64"));
+    }
+
+    /**
+     * Verify the document written by {@link #writeDocument}, skipping every
+     * other child when requested.
+     */
+    private static void verifyDocument(BinaryXmlPullParser in, String longText, boolean skip)
+            throws Exception {
+        assertNext(in, START_TAG, "root");
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            assertNext(in, START_TAG, "child");
+            if (skip && (i % 2) == 1) {
+                in.skipSubTree();
+                assertEquals(END_TAG, in.getEventType());
+                assertEquals("child", in.getName());
+                continue;
+            }
+            verifyChild(in, i);
+            assertNext(in, START_TAG, "grandchild");
+            assertEquals(TEXT, in.next());
+            assertEquals("text " + i, in.getText());
+            assertNext(in, END_TAG, "grandchild");
+            assertNext(in, END_TAG, "child");
+        }
+        if (longText != null) {
+            assertNext(in, START_TAG, "long");
+            assertEquals(TEXT, in.next());
+            assertEquals(longText, in.getText());
+            assertNext(in, END_TAG, "long");
+        }
+        assertNext(in, END_TAG, "root");
+        assertEquals(END_DOCUMENT, in.next());
+    }
+
+    private static BinaryXmlPullParser openStream(byte[] data) throws Exception {
+        final BinaryXmlPullParser in = new BinaryXmlPullParser();
+        in.setInput(new ByteArrayInputStream(data), StandardCharsets.UTF_8.name());
+        return in;
+    }
+
+    private static File writeFile(byte[] data) throws IOException {
+        final File file = File.createTempFile("abx", null);
+        file.deleteOnExit();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    /**
+     * Consume every event of the given document, which is expected to fail.
+     */
+    private static void assertParseFails(byte[] data) {
+        try {
+            final BinaryXmlPullParser in = openStream(data);
+            while (in.next() != END_DOCUMENT) {
+                for (int i = 0; i < in.getAttributeCount(); i++) {
+                    in.getAttributeValue(i);
+                }
+            }
+        } catch (XmlPullParserException | IOException expected) {
+            return;
+        } catch (Exception e) {
+            throw new AssertionError("Unexpected failure for " + data.length + " bytes", e);
+        }
+        fail("Expected failure for " + data.length + " bytes");
+    }
+
+    /**
+     * Consume every event of the given document, which may either fail with
+     * one of the documented exceptions or succeed.
+     */
+    private static void assertParseFailsCleanly(byte[] data) {
+        try {
+            final BinaryXmlPullParser in = openStream(data);
+            while (in.next() != END_DOCUMENT) {
+                for (int i = 0; i < in.getAttributeCount(); i++) {
+                    in.getAttributeValue(i);
+                }
+            }
+        } catch (XmlPullParserException | IOException expected) {
+        } catch (Exception e) {
+            throw new AssertionError("Unexpected failure for " + data.length + " bytes", e);
+        }
+    }
+
+    @Test
+    public void testFeatureCombinations() throws Exception {
+        final String longText = newLongText();
+        for (int features = 0; features <= ALL; features++) {
+            if (!isValid(features)) continue;
+            final String desc = "features " + Integer.toBinaryString(features);
+            final byte[] data = write(features, longText);
+
+            final byte[] magic = ((features & COMPRESSION) != 0)
+                    ? BinaryXmlSerializer.PROTOCOL_MAGIC_COMPRESSED
+                    : ((features & VERSION_1) != 0)
+                            ? BinaryXmlSerializer.PROTOCOL_MAGIC_VERSION_1
+                            : BinaryXmlSerializer.PROTOCOL_MAGIC_VERSION_0;
+            assertArrayEquals(desc, magic, Arrays.copyOf(data, 4));
+
+            verifyDocument(openStream(data), longText, false);
+            verifyDocument(openStream(data), longText, true);
+
+            final File file = writeFile(data);
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                final BinaryXmlPullParser in = new BinaryXmlPullParser();
+                in.setInput(channel);
+                verifyDocument(in, longText, false);
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                final BinaryXmlPullParser in = new BinaryXmlPullParser();
+                in.setInput(channel);
+                verifyDocument(in, longText, true);
+            }
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testChannelOutputMatchesStream() throws Exception {
+        for (int features = 0; features <= ALL; features++) {
+            if (!isValid(features) || (features & COMPRESSION) != 0) continue;
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final BinaryXmlSerializer out = newSerializer(features);
+            out.setOutput(Channels.newChannel(os));
+            writeDocument(out, null);
+            assertArrayEquals(write(features, null), os.toByteArray());
+        }
+    }
+
+    @Test
+    public void testVersion0Fixture() throws Exception {
+        // Hand-assembled document in the original format, with fixed-width
+        // integers and short interned references
+        final byte[] data = new byte[] {
+                0x41, 0x42, 0x58, 0x00,
+                // START_DOCUMENT
+                0x10,
+                // START_TAG "tag" (new interned value)
+                0x32, (byte) 0xff, (byte) 0xff, 0x00, 0x03, 't', 'a', 'g',
+                // ATTRIBUTE "num" as TYPE_INT
+                0x6f, (byte) 0xff, (byte) 0xff, 0x00, 0x03, 'n', 'u', 'm',
+                0x00, 0x00, 0x01, 0x00,
+                // ATTRIBUTE "big" as TYPE_LONG
+                (byte) 0x8f, (byte) 0xff, (byte) 0xff, 0x00, 0x03, 'b', 'i', 'g',
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xfe,
+                // TEXT "hi"
+                0x24, 0x00, 0x02, 'h', 'i',
+                // END_TAG "tag" (reference 0)
+                0x33, 0x00, 0x00,
+                // END_DOCUMENT
+                0x11,
+        };
+        final BinaryXmlPullParser in = openStream(data);
+        assertNext(in, START_TAG, "tag");
+        assertEquals(256, in.getAttributeInt(null, "num"));
+        assertEquals(-2L, in.getAttributeLong(null, "big"));
+        assertEquals(TEXT, in.next());
+        assertEquals("hi", in.getText());
+        assertNext(in, END_TAG, "tag");
+        assertEquals(END_DOCUMENT, in.next());
+
+        // And the serializer still writes exactly that by default
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        out.startDocument(null, null);
+        out.startTag(null, "tag");
+        out.attributeInt(null, "num", 256);
+        out.attributeLong(null, "big", -2L);
+        out.text("hi");
+        out.endTag(null, "tag");
+        out.endDocument();
+        assertArrayEquals(data, os.toByteArray());
+    }
+
+    @Test
+    public void testVersion1StringTable() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = newSerializer(VERSION_1);
+        out.setStringTable(new String[] { "root", "child", "grandchild", "name", "label" });
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        writeDocument(out, null);
+        final byte[] data = os.toByteArray();
+        verifyDocument(openStream(data), null, false);
+        assertTrue(data.length < write(0, null).length);
+    }
+
+    @Test
+    public void testVersion1ManyInternedValues() throws Exception {
+        // Beyond the 65,535 values which version 0 can reference
+        final int count = 70_000;
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = newSerializer(VERSION_1);
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        out.startDocument(null, true);
+        out.startTag(null, "root");
+        for (int i = 0; i < count; i++) {
+            out.startTag(null, "item");
+            out.attributeInterned(null, "value", "value" + i);
+            out.endTag(null, "item");
+        }
+        for (int i = 0; i < count; i += 1_000) {
+            out.startTag(null, "again");
+            out.attributeInterned(null, "value", "value" + i);
+            out.endTag(null, "again");
+        }
+        out.endTag(null, "root");
+        out.endDocument();
+
+        final BinaryXmlPullParser in = openStream(os.toByteArray());
+        assertNext(in, START_TAG, "root");
+        for (int i = 0; i < count; i++) {
+            assertNext(in, START_TAG, "item");
+            assertEquals("value" + i, in.getAttributeValue(null, "value"));
+            assertNext(in, END_TAG, "item");
+        }
+        for (int i = 0; i < count; i += 1_000) {
+            assertNext(in, START_TAG, "again");
+            assertEquals("value" + i, in.getAttributeValue(null, "value"));
+            assertNext(in, END_TAG, "again");
+        }
+        assertNext(in, END_TAG, "root");
+        assertEquals(END_DOCUMENT, in.next());
+    }
+
+    @Test
+    public void testVarintSmaller() throws Exception {
+        assertTrue(write(VERSION_1 | VARINT, null).length < write(VERSION_1, null).length);
+    }
+
+    @Test
+    public void testVarintRequiresVersion1() throws Exception {
+        final BinaryXmlSerializer out = newSerializer(VARINT);
+        try {
+            out.setOutput(new ByteArrayOutputStream(), StandardCharsets.UTF_8.name());
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testCompressionSmaller() throws Exception {
+        assertTrue(write(COMPRESSION, null).length < write(0, null).length / 2);
+    }
+
+    @Test
+    public void testCompressedDocumentsReuseParser() throws Exception {
+        final String longText = newLongText();
+        final byte[] compressed = write(VERSION_1 | COMPRESSION, longText);
+        final byte[] plain = write(VERSION_1, null);
+        final BinaryXmlPullParser in = new BinaryXmlPullParser();
+        for (byte[] data : new byte[][] { compressed, plain, compressed, compressed }) {
+            in.setInput(new ByteArrayInputStream(data), null);
+            verifyDocument(in, (data == compressed) ? longText : null, false);
+        }
+
+        // Abandoning a document part way leaves the parser usable
+        in.setInput(new ByteArrayInputStream(compressed), null);
+        assertNext(in, START_TAG, "root");
+        in.setInput(new ByteArrayInputStream(compressed), null);
+        verifyDocument(in, longText, true);
+    }
+
+    @Test
+    public void testCompressedDocumentsReuseSerializer() throws Exception {
+        final String longText = newLongText();
+        final byte[] expected = write(VERSION_1 | COMPRESSION, longText);
+        final BinaryXmlSerializer out = newSerializer(VERSION_1 | COMPRESSION);
+        for (int i = 0; i < 3; i++) {
+            // Abandoning a document part way leaves the serializer usable
+            out.setOutput(new ByteArrayOutputStream(), null);
+            out.startDocument(null, true);
+            out.startTag(null, "abandoned");
+            out.text(longText);
+
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            out.setOutput(os, null);
+            writeDocument(out, longText);
+            assertArrayEquals(expected, os.toByteArray());
+        }
+        verifyDocument(openStream(expected), longText, false);
+    }
+
+    @Test
+    public void testIndexRejectsCompression() throws Exception {
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setFeature(BinaryXmlSerializer.FEATURE_INDEX, true);
+        try {
+            out.setFeature(BinaryXmlSerializer.FEATURE_COMPRESSION, true);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        final BinaryXmlSerializer out2 = new BinaryXmlSerializer();
+        out2.setFeature(BinaryXmlSerializer.FEATURE_COMPRESSION, true);
+        try {
+            out2.setFeature(BinaryXmlSerializer.FEATURE_INDEX, true);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testIndexTrailer() throws Exception {
+        final byte[] data = write(VERSION_1 | VARINT | INDEX, null);
+        assertArrayEquals(BinaryXmlSerializer.PROTOCOL_MAGIC_INDEX,
+                Arrays.copyOfRange(data, data.length - 4, data.length));
+
+        final File file = writeFile(data);
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            final List<String> labels = BinaryXmlPullParser.parseChildren(channel,
+                    ForkJoinPool.commonPool(), (in) -> {
+                        assertEquals(2, in.getDepth());
+                        final String label = in.getAttributeValue(null, "label");
+                        in.skipSubTree();
+                        return label;
+                    });
+            assertEquals(CHILD_COUNT, labels.size());
+            for (int i = 0; i < CHILD_COUNT; i++) {
+                assertEquals("Label é中 😀 " + i, labels.get(i));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testChecksumDetectsCorruption() throws Exception {
+        for (int features : new int[] { CHECKSUM, VERSION_1 | VARINT | CHECKSUM,
+                COMPRESSION | CHECKSUM }) {
+            final byte[] data = write(features, null);
+            verifyDocument(openStream(data), null, false);
+
+            // Change a single character of a value, which leaves the structure
+            // of the document intact
+            final byte[] label = "Label".getBytes(StandardCharsets.UTF_8);
+            if ((features & COMPRESSION) == 0) {
+                final int offset = indexOf(data, label);
+                assertTrue(offset > 0);
+                final byte[] corrupt = data.clone();
+                corrupt[offset] = 'l';
+                assertParseFails(corrupt);
+            }
+
+            // Corrupting the trailer itself is also detected
+            final byte[] corrupt = data.clone();
+            corrupt[data.length - 1] ^= 0x01;
+            if ((features & COMPRESSION) == 0) {
+                assertParseFails(corrupt);
+            } else {
+                assertParseFailsCleanly(corrupt);
+            }
+        }
+    }
+
+    private static List<String> parseLabels(byte[] data) throws Exception {
+        final File file = writeFile(data);
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            return BinaryXmlPullParser.parseChildren(channel, ForkJoinPool.commonPool(),
+                    (in) -> {
+                        final String label = in.getAttributeValue(null, "label");
+                        in.skipSubTree();
+                        return label;
+                    });
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testParseChildrenVerifiesChecksum() throws Exception {
+        for (int features : new int[] { CHECKSUM, VERSION_1 | VARINT | CHECKSUM,
+                INDEX | CHECKSUM, VERSION_1 | VARINT | INDEX | CHECKSUM }) {
+            final byte[] data = write(features, newLongText());
+            final List<String> labels = parseLabels(data);
+            assertEquals(CHILD_COUNT + 1, labels.size());
+            assertEquals("Label é中 😀 0", labels.get(0));
+            assertNull(labels.get(CHILD_COUNT));
+
+            // Corrupt a value of the first child, and then of the last child,
+            // which is parsed by a later range when the document is indexed
+            final byte[] label = "Label".getBytes(StandardCharsets.UTF_8);
+            final int first = indexOf(data, label);
+            int last = first;
+            for (int i = 1; i < CHILD_COUNT; i++) {
+                last += 1 + indexOf(Arrays.copyOfRange(data, last + 1, data.length), label);
+            }
+            for (int offset : new int[] { first, last }) {
+                final byte[] corrupt = data.clone();
+                corrupt[offset] = 'l';
+                try {
+                    parseLabels(corrupt);
+                    fail("Expected checksum failure for features " + features);
+                } catch (XmlPullParserException expected) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testChecksumDetectsTruncation() throws Exception {
+        for (int features : new int[] { CHECKSUM, VERSION_1 | VARINT | CHECKSUM,
+                COMPRESSION | CHECKSUM }) {
+            final byte[] data = write(features, null);
+            for (int len = 0; len < data.length; len++) {
+                assertParseFails(Arrays.copyOf(data, len));
+            }
+        }
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        for (int features : new int[] { 0, VERSION_1 | VARINT, COMPRESSION, INDEX }) {
+            final byte[] data = write(features, null);
+            for (int len = 0; len < data.length; len++) {
+                assertParseFailsCleanly(Arrays.copyOf(data, len));
+            }
+        }
+    }
+
+    @Test
+    public void testCorrupted() throws Exception {
+        for (int features : new int[] { 0, VERSION_1 | VARINT, COMPRESSION, INDEX }) {
+            final byte[] data = write(features, null);
+            for (int i = 0; i < data.length; i++) {
+                final byte[] corrupt = data.clone();
+                corrupt[i] ^= 0x5a;
+                assertParseFailsCleanly(corrupt);
+            }
+        }
+    }
+
+    @Test
+    public void testUnknownMagic() throws Exception {
+        final byte[] data = write(0, null);
+        data[3] = 0x7f;
+        try {
+            openStream(data);
+            fail();
+        } catch (XmlPullParserException expected) {
+        }
+    }
+
+    @Test
+    public void testUnknownHeaderFlags() throws Exception {
+        final byte[] data = write(VERSION_1, null);
+        // Flags immediately follow the magic
+        data[4] = 0x02;
+        try {
+            openStream(data);
+            fail();
+        } catch (XmlPullParserException expected) {
+        }
+    }
+
+    @Test
+    public void testWriteUtfTooLong() throws Exception {
+        // Large enough that even the single-pass encoding path is taken
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final FastDataOutput out = new FastDataOutput(os, 262_144);
+        final char[] chars = new char[80_000];
+        Arrays.fill(chars, 'a');
+        final String value = new String(chars);
+        try {
+            out.writeUTF(value);
+            fail();
+        } catch (IOException expected) {
+        }
+
+        // Nothing from the failed value leaks into later output
+        out.writeUTF("ok");
+        out.flush();
+        assertArrayEquals(new byte[] { 0x00, 0x02, 'o', 'k' }, os.toByteArray());
+    }
+
+    private static int indexOf(byte[] data, byte[] target) {
+        outer:
+        for (int i = 0; i <= data.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (data[i + j] != target[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.internal.util.FastXmlSerializer;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Differential coverage for {@link BinaryXmlTranscoder}, whose text output is
+ * compared against {@link FastXmlSerializer} given the same events.
+ */
+@RunWith(JUnit4.class)
+@SmallTest
+public class BinaryXmlTranscoderTest extends TestCase {
+    private static final String INDENT_OUTPUT =
+            "http://xmlpull.org/v1/doc/features.html#indent-output";
+
+    private interface DocumentWriter {
+        void write(TypedXmlSerializer out) throws IOException;
+    }
+
+    private static byte[] writeBinary(DocumentWriter writer) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        out.startDocument(null, true);
+        writer.write(out);
+        out.endDocument();
+        return os.toByteArray();
+    }
+
+    /**
+     * Replay every event of the given binary document through
+     * {@link FastXmlSerializer}, with attribute values in their string form.
+     */
+    private static String writeExpected(byte[] data, boolean indent) throws Exception {
+        final BinaryXmlPullParser in = new BinaryXmlPullParser();
+        in.setInput(new ByteArrayInputStream(data), StandardCharsets.UTF_8.name());
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final FastXmlSerializer out = new FastXmlSerializer();
+        out.setOutput(os, StandardCharsets.UTF_8.name());
+        if (indent) {
+            // Requesting the feature always enables it, whatever the state
+            out.setFeature(INDENT_OUTPUT, true);
+        }
+        out.startDocument(null, true);
+        while (true) {
+            switch (in.nextToken()) {
+                case XmlPullParser.START_TAG:
+                    out.startTag(null, in.getName());
+                    for (int i = 0; i < in.getAttributeCount(); i++) {
+                        out.attribute(null, in.getAttributeName(i), in.getAttributeValue(i));
+                    }
+                    break;
+                case XmlPullParser.END_TAG:
+                    out.endTag(null, in.getName());
+                    break;
+                case XmlPullParser.TEXT:
+                    out.text(in.getText());
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    out.endDocument();
+                    return new String(os.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private static void assertTranscoded(DocumentWriter writer) throws Exception {
+        final byte[] data = writeBinary(writer);
+        final BinaryXmlTranscoder transcoder = new BinaryXmlTranscoder();
+        for (boolean indent : new boolean[] { false, true }) {
+            transcoder.setIndentOutput(indent);
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            transcoder.binaryToText(new ByteArrayInputStream(data), os);
+            assertEquals("indent " + indent, writeExpected(data, indent),
+                    new String(os.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testTypedAttributes() throws Exception {
+        assertTranscoded((out) -> {
+            out.startTag(null, "root");
+            for (int i = 0; i < 4; i++) {
+                out.startTag(null, "child");
+                out.attributeInterned(null, "name", "com.example." + (i % 2));
+                out.attribute(null, "label", "<a & \"b\">\t\n é中 😀 " + i);
+                out.attributeInt(null, "int", (i == 0) ? Integer.MIN_VALUE : -i);
+                out.attributeIntHex(null, "intHex", (i == 0) ? -1 : i << 28);
+                out.attributeLong(null, "long", (i == 0) ? Long.MIN_VALUE : i);
+                out.attributeLongHex(null, "longHex", (i == 0) ? Long.MIN_VALUE : -i);
+                out.attributeFloat(null, "float", i / 3f);
+                out.attributeDouble(null, "double", -i / 7d);
+                out.attributeBoolean(null, "bool", (i % 2) == 0);
+                out.attributeBytesHex(null, "hex", new byte[] { (byte) (i * 67), 0x0f });
+                out.attributeBytesBase64(null, "base64", new byte[i]);
+                out.endTag(null, "child");
+            }
+            out.endTag(null, "root");
+        });
+    }
+
+    @Test
+    public void testText() throws Exception {
+        assertTranscoded((out) -> {
+            out.startTag(null, "root");
+            out.text("\n");
+            out.startTag(null, "a");
+            out.text("Text <with> & \"markup\" \u0001 é中 😀");
+            out.endTag(null, "a");
+            out.startTag(null, "b");
+            out.text("ends with a newline\n");
+            out.endTag(null, "b");
+            out.startTag(null, "c");
+            out.text("split ");
+            out.text("across ");
+            out.text("tokens");
+            out.endTag(null, "c");
+            out.endTag(null, "root");
+        });
+    }
+
+    @Test
+    public void testEmptyText() throws Exception {
+        // Empty text still closes any open start tag, so that element is no
+        // longer written as an empty element
+        assertTranscoded((out) -> {
+            out.startTag(null, "r");
+            out.startTag(null, "a");
+            out.text("");
+            out.startTag(null, "b");
+            out.endTag(null, "b");
+            out.endTag(null, "a");
+            out.startTag(null, "c");
+            out.text("");
+            out.endTag(null, "c");
+            out.startTag(null, "d");
+            out.text("\n");
+            out.text("");
+            out.endTag(null, "d");
+            out.endTag(null, "r");
+        });
+    }
+
+    @Test
+    public void testLongText() throws Exception {
+        // Spans several tokens, with a surrogate pair straddling the first
+        // token boundary
+        final StringBuilder builder = new StringBuilder();
+        while (builder.length() < 65_534) {
+            builder.append('a');
+        }
+        builder.append("😀");
+        while (builder.length() < 200_000) {
+            builder.append("é中<&x");
+        }
+        builder.append('\n');
+        final String text = builder.toString();
+        assertTranscoded((out) -> {
+            out.startTag(null, "root");
+            out.startTag(null, "long");
+            out.text(text);
+            out.endTag(null, "long");
+            out.endTag(null, "root");
+        });
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@RunWith(JUnit4.class)
+@SmallTest
+public class FastDataLeakDetectorTest extends TestCase {
+    private final List<Throwable> mLeaks = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        FastDataLeakDetector.setReporter(mLeaks::add);
+    }
+
+    @After
+    public void tearDown() {
+        FastDataLeakDetector.setReporter(null);
+    }
+
+    /**
+     * Collect garbage until at least one leak is reported, giving up after a
+     * bounded number of attempts.
+     */
+    private void awaitLeaks() throws Exception {
+        for (int i = 0; i < 50 && mLeaks.isEmpty(); i++) {
+            System.gc();
+            Thread.sleep(10);
+            FastDataLeakDetector.checkLeaks();
+        }
+    }
+
+    private static void leakInput() {
+        FastDataInput.obtain(new ByteArrayInputStream(new byte[0]));
+    }
+
+    private static void leakOutput() {
+        FastDataOutput.obtain(new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void testReleasedNotReported() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            FastDataInput.obtain(new ByteArrayInputStream(new byte[0])).release();
+            FastDataOutput.obtain(new ByteArrayOutputStream()).release();
+        }
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(10);
+            FastDataLeakDetector.checkLeaks();
+        }
+        assertTrue(mLeaks.isEmpty());
+    }
+
+    @Test
+    public void testInputLeakReported() throws Exception {
+        leakInput();
+        awaitLeaks();
+        assertEquals(1, mLeaks.size());
+        assertTrue(mLeaks.get(0).getMessage().contains("FastDataInput"));
+    }
+
+    @Test
+    public void testOutputLeakReported() throws Exception {
+        leakOutput();
+        awaitLeaks();
+        assertEquals(1, mLeaks.size());
+        assertTrue(mLeaks.get(0).getMessage().contains("FastDataOutput"));
+    }
+}
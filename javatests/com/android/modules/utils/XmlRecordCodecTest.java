@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import androidx.test.filters.SmallTest;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Exercises the {@link XmlRecordCodec} generated for {@link PackageRecord}
+ * by {@code XmlRecordProcessor}.
+ */
+@RunWith(JUnit4.class)
+@SmallTest
+public class XmlRecordCodecTest extends TestCase {
+    @XmlRecord
+    static class PackageRecord {
+        @XmlRecord.Attribute(value = "name", interned = true) String name;
+        @XmlRecord.Attribute("label") String label;
+        @XmlRecord.Attribute("uid") int uid;
+        @XmlRecord.Attribute(value = "flags", hex = true) int flags;
+        @XmlRecord.Attribute("ts") long timestamp;
+        @XmlRecord.Attribute(value = "mask", hex = true) long mask;
+        @XmlRecord.Attribute("scale") float scale;
+        @XmlRecord.Attribute("ratio") double ratio;
+        @XmlRecord.Attribute("enabled") boolean enabled;
+        @XmlRecord.Attribute("sig") byte[] signature;
+        @XmlRecord.Attribute(value = "hash", hex = true) byte[] hash;
+    }
+
+    private static PackageRecord newRecord() {
+        final PackageRecord record = new PackageRecord();
+        record.name = "com.example";
+        record.label = "Example é中";
+        record.uid = 10_042;
+        record.flags = 0x80000001;
+        record.timestamp = -1_700_000_000_000L;
+        record.mask = 0xcafef00dL;
+        record.scale = 1.5f;
+        record.ratio = -0.25;
+        record.enabled = true;
+        record.signature = new byte[] { 1, 2, 3 };
+        record.hash = new byte[] { (byte) 0xca, (byte) 0xfe };
+        return record;
+    }
+
+    private static byte[] write(PackageRecord record) throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final TypedXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, "UTF-8");
+        out.startDocument(null, true);
+        out.startTag(null, "package");
+        XmlRecordCodecTest_PackageRecordXmlCodec.INSTANCE.writeAttributes(out, record);
+        out.endTag(null, "package");
+        out.endDocument();
+        return os.toByteArray();
+    }
+
+    private static TypedXmlPullParser openTag(byte[] data) throws Exception {
+        final TypedXmlPullParser in = new BinaryXmlPullParser();
+        in.setInput(new ByteArrayInputStream(data), "UTF-8");
+        assertEquals(XmlPullParser.START_TAG, in.next());
+        return in;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final PackageRecord expected = newRecord();
+        final PackageRecord actual = new PackageRecord();
+        XmlRecordCodecTest_PackageRecordXmlCodec.INSTANCE.readAttributes(
+                openTag(write(expected)), actual);
+
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.label, actual.label);
+        assertEquals(expected.uid, actual.uid);
+        assertEquals(expected.flags, actual.flags);
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.mask, actual.mask);
+        assertEquals(expected.scale, actual.scale, 0f);
+        assertEquals(expected.ratio, actual.ratio, 0d);
+        assertEquals(expected.enabled, actual.enabled);
+        assertArrayEquals(expected.signature, actual.signature);
+        assertArrayEquals(expected.hash, actual.hash);
+    }
+
+    @Test
+    public void testNullValuesOmitted() throws Exception {
+        final PackageRecord expected = newRecord();
+        expected.label = null;
+        expected.signature = null;
+        final TypedXmlPullParser in = openTag(write(expected));
+        assertEquals(9, in.getAttributeCount());
+        assertNull(in.getAttributeValue(null, "label"));
+        assertNull(in.getAttributeValue(null, "sig"));
+
+        // Missing attributes leave the existing field values in place
+        final PackageRecord actual = new PackageRecord();
+        actual.label = "unchanged";
+        XmlRecordCodecTest_PackageRecordXmlCodec.INSTANCE.readAttributes(in, actual);
+        assertEquals("unchanged", actual.label);
+        assertNull(actual.signature);
+        assertEquals(expected.uid, actual.uid);
+    }
+
+    @Test
+    public void testOutOfOrderAndUnknownAttributes() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final TypedXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(os, "UTF-8");
+        out.startDocument(null, true);
+        out.startTag(null, "package");
+        out.attributeBoolean(null, "enabled", true);
+        out.attribute(null, "unknown", "ignored");
+        out.attributeInt(null, "uid", 1000);
+        out.attributeInterned(null, "name", "android");
+        out.endTag(null, "package");
+        out.endDocument();
+
+        final PackageRecord actual = new PackageRecord();
+        XmlRecordCodecTest_PackageRecordXmlCodec.INSTANCE.readAttributes(
+                openTag(os.toByteArray()), actual);
+        assertEquals("android", actual.name);
+        assertEquals(1000, actual.uid);
+        assertTrue(actual.enabled);
+        assertNull(actual.label);
+    }
+}
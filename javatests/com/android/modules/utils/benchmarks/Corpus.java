@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils.benchmarks;
+
+import com.android.modules.utils.TypedXmlPullParser;
+import com.android.modules.utils.TypedXmlSerializer;
+
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic data shaped like the persisted state that the
+ * binary XML stack is used for.
+ */
+final class Corpus {
+    private static final String[] PACKAGES = {
+            "com.android.systemui", "com.google.android.gms", "com.android.providers.settings",
+            "com.example.app", "android", "com.android.bluetooth",
+    };
+
+    private static final String[] LABELS = {
+            "Paramètres", "設定", "Настройки", "الإعدادات", "Einstellungen", "Réglages ✓",
+    };
+
+    private static final String[] PERMISSIONS = new String[48];
+    static {
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            PERMISSIONS[i] = "android.permission.PERMISSION_" + Integer.toString(i * 7919, 36)
+                    .toUpperCase();
+        }
+    }
+
+    /**
+     * Shapes of synthetic documents accepted by {@link #writeDocument}: many
+     * attributes per element, deeply nested elements, repetitive values which
+     * benefit from interning, and large text bodies.
+     */
+    static final String WIDE = "wide";
+    static final String DEEP = "deep";
+    static final String INTERNED = "interned";
+    static final String TEXT = "text";
+
+    private Corpus() {
+    }
+
+    /**
+     * Return a mix of package names, paths, version strings and numbers, with
+     * an optional sprinkling of non-ASCII labels.
+     */
+    static String[] attributeValues(boolean mixed) {
+        final Random random = new Random(42);
+        final String[] values = new String[1_024];
+        for (int i = 0; i < values.length; i++) {
+            final String pkg = PACKAGES[random.nextInt(PACKAGES.length)];
+            switch (random.nextInt(mixed ? 5 : 4)) {
+                case 0: values[i] = pkg; break;
+                case 1: values[i] = "/data/app/~~" + Long.toHexString(random.nextLong())
+                        + "/" + pkg + "-1/base.apk"; break;
+                case 2: values[i] = random.nextInt(40) + "." + random.nextInt(10) + ".0"; break;
+                case 3: values[i] = Integer.toString(random.nextInt(100_000)); break;
+                default: values[i] = LABELS[random.nextInt(LABELS.length)]; break;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Return a mix of UIDs, flags, version codes and small counters.
+     */
+    static int[] intValues() {
+        final Random random = new Random(42);
+        final int[] values = new int[1_024];
+        for (int i = 0; i < values.length; i++) {
+            switch (random.nextInt(4)) {
+                case 0: values[i] = 10_000 + random.nextInt(500); break;
+                case 1: values[i] = random.nextInt() & 0x0fff_0fff; break;
+                case 2: values[i] = 200_000_000 + random.nextInt(100_000_000); break;
+                default: values[i] = random.nextInt(16); break;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Return a mix of wall-clock timestamps, durations and sizes.
+     */
+    static long[] longValues() {
+        final Random random = new Random(42);
+        final long[] values = new long[1_024];
+        for (int i = 0; i < values.length; i++) {
+            switch (random.nextInt(3)) {
+                case 0: values[i] = 1_700_000_000_000L + random.nextInt(Integer.MAX_VALUE); break;
+                case 1: values[i] = random.nextInt(86_400_000); break;
+                default: values[i] = (long) random.nextInt(1 << 20) << random.nextInt(20); break;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Write a complete document of the given shape, using typed attributes
+     * when the serializer supports them.
+     */
+    static void writeDocument(String shape, XmlSerializer out) throws IOException {
+        final Random random = new Random(42);
+        out.startDocument(null, true);
+        out.startTag(null, "corpus");
+        switch (shape) {
+            case WIDE: writeWide(random, out); break;
+            case DEEP: writeDeep(random, out); break;
+            case INTERNED: writeInterned(random, out); break;
+            case TEXT: writeText(random, out); break;
+            default: throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+        out.endTag(null, "corpus");
+        out.endDocument();
+    }
+
+    private static void writeWide(Random random, XmlSerializer out) throws IOException {
+        for (int i = 0; i < 1_000; i++) {
+            final String pkg = PACKAGES[random.nextInt(PACKAGES.length)];
+            out.startTag(null, "package");
+            out.attribute(null, "name", pkg + ".app" + i);
+            out.attribute(null, "codePath", "/data/app/~~" + Long.toHexString(random.nextLong())
+                    + "/" + pkg + "-1");
+            attributeInterned(out, "installer", PACKAGES[random.nextInt(PACKAGES.length)]);
+            attributeInt(out, "uid", 10_000 + i);
+            attributeInt(out, "flags", random.nextInt() & 0x0fff_0fff);
+            attributeInt(out, "version", 200_000_000 + random.nextInt(100_000_000));
+            attributeLong(out, "ft", 1_700_000_000_000L + random.nextInt(Integer.MAX_VALUE));
+            attributeLong(out, "it", 1_700_000_000_000L + random.nextInt(Integer.MAX_VALUE));
+            attributeLong(out, "ut", 1_700_000_000_000L + random.nextInt(Integer.MAX_VALUE));
+            attributeBoolean(out, "enabled", random.nextBoolean());
+            attributeBoolean(out, "stopped", random.nextBoolean());
+            out.attribute(null, "label", LABELS[random.nextInt(LABELS.length)]);
+            for (int j = 0; j < 8; j++) {
+                out.attribute(null, "extra" + j, Integer.toHexString(random.nextInt()));
+            }
+            out.endTag(null, "package");
+        }
+    }
+
+    private static void writeDeep(Random random, XmlSerializer out) throws IOException {
+        for (int i = 0; i < 200; i++) {
+            for (int depth = 0; depth < 32; depth++) {
+                out.startTag(null, "node");
+                attributeInt(out, "uid", depth);
+                attributeInterned(out, "kind", (depth % 2 == 0) ? "even" : "odd");
+            }
+            out.text(PACKAGES[random.nextInt(PACKAGES.length)]);
+            for (int depth = 0; depth < 32; depth++) {
+                out.endTag(null, "node");
+            }
+        }
+    }
+
+    private static void writeInterned(Random random, XmlSerializer out) throws IOException {
+        for (int i = 0; i < 200; i++) {
+            out.startTag(null, "pkg");
+            attributeInterned(out, "name", PACKAGES[random.nextInt(PACKAGES.length)]);
+            for (int j = 0; j < 24; j++) {
+                out.startTag(null, "item");
+                attributeInterned(out, "name", PERMISSIONS[random.nextInt(PERMISSIONS.length)]);
+                attributeBoolean(out, "granted", random.nextBoolean());
+                attributeInt(out, "flags", random.nextInt(16));
+                out.endTag(null, "item");
+            }
+            out.endTag(null, "pkg");
+        }
+    }
+
+    private static void writeText(Random random, XmlSerializer out) throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.setLength(0);
+            final int len = 256 + random.nextInt(3_840);
+            while (text.length() < len) {
+                switch (random.nextInt(4)) {
+                    case 0: text.append(LABELS[random.nextInt(LABELS.length)]); break;
+                    case 1: text.append(" & <value> "); break;
+                    default: text.append(PACKAGES[random.nextInt(PACKAGES.length)]); break;
+                }
+                text.append(' ');
+            }
+            out.startTag(null, "entry");
+            out.attribute(null, "key", "key" + i);
+            out.text(text.toString());
+            out.endTag(null, "entry");
+        }
+    }
+
+    private static void attributeInterned(XmlSerializer out, String name, String value)
+            throws IOException {
+        if (out instanceof TypedXmlSerializer) {
+            ((TypedXmlSerializer) out).attributeInterned(null, name, value);
+        } else {
+            out.attribute(null, name, value);
+        }
+    }
+
+    private static void attributeInt(XmlSerializer out, String name, int value)
+            throws IOException {
+        if (out instanceof TypedXmlSerializer) {
+            ((TypedXmlSerializer) out).attributeInt(null, name, value);
+        } else {
+            out.attribute(null, name, Integer.toString(value));
+        }
+    }
+
+    private static void attributeLong(XmlSerializer out, String name, long value)
+            throws IOException {
+        if (out instanceof TypedXmlSerializer) {
+            ((TypedXmlSerializer) out).attributeLong(null, name, value);
+        } else {
+            out.attribute(null, name, Long.toString(value));
+        }
+    }
+
+    private static void attributeBoolean(XmlSerializer out, String name, boolean value)
+            throws IOException {
+        if (out instanceof TypedXmlSerializer) {
+            ((TypedXmlSerializer) out).attributeBoolean(null, name, value);
+        } else {
+            out.attribute(null, name, Boolean.toString(value));
+        }
+    }
+
+    /**
+     * Read a complete document written by {@link #writeDocument}, decoding
+     * each attribute the way a typical caller would, by switching on its name.
+     */
+    static void readDocument(XmlPullParser in, Blackhole bh)
+            throws IOException, XmlPullParserException {
+        final TypedXmlPullParser typed =
+                (in instanceof TypedXmlPullParser) ? (TypedXmlPullParser) in : null;
+        int event;
+        while ((event = in.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.TEXT) {
+                bh.consume(in.getText());
+            } else if (event == XmlPullParser.START_TAG) {
+                bh.consume(in.getName());
+                for (int i = 0; i < in.getAttributeCount(); i++) {
+                    switch (in.getAttributeName(i)) {
+                        case "uid":
+                        case "flags":
+                        case "version":
+                            bh.consume((typed != null) ? typed.getAttributeInt(i)
+                                    : Integer.parseInt(in.getAttributeValue(i)));
+                            break;
+                        case "ft":
+                        case "it":
+                        case "ut":
+                            bh.consume((typed != null) ? typed.getAttributeLong(i)
+                                    : Long.parseLong(in.getAttributeValue(i)));
+                            break;
+                        case "enabled":
+                        case "stopped":
+                        case "granted":
+                            bh.consume((typed != null) ? typed.getAttributeBoolean(i)
+                                    : Boolean.parseBoolean(in.getAttributeValue(i)));
+                            break;
+                        default:
+                            bh.consume(in.getAttributeValue(i));
+                            break;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils.benchmarks;
+
+import com.android.modules.utils.FastDataInput;
+import com.android.modules.utils.FastDataOutput;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-value cost of the fixed-width primitives of
+ * {@link FastDataOutput} and {@link FastDataInput}, which carry the
+ * {@code int}, {@code long}, {@code float} and {@code double} attributes of
+ * binary XML documents.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FastDataBenchmark {
+    private static final int COUNT = 1_024;
+
+    private int[] mInts;
+    private long[] mLongs;
+    private int[] mIntsScratch;
+    private FastDataOutput mOut;
+    private ByteArrayInputStream mIntsEncoded;
+    private ByteArrayInputStream mLongsEncoded;
+
+    @Setup
+    public void setup() throws IOException {
+        mInts = Corpus.intValues();
+        mLongs = Corpus.longValues();
+        mIntsScratch = new int[COUNT];
+        mOut = new FastDataOutput(OutputStream.nullOutputStream(), 32_768);
+
+        final ByteArrayOutputStream ints = new ByteArrayOutputStream();
+        final FastDataOutput intsOut = new FastDataOutput(ints, 32_768);
+        intsOut.writeIntArray(mInts);
+        intsOut.flush();
+        mIntsEncoded = new ByteArrayInputStream(ints.toByteArray());
+
+        final ByteArrayOutputStream longs = new ByteArrayOutputStream();
+        final FastDataOutput longsOut = new FastDataOutput(longs, 32_768);
+        longsOut.writeLongArray(mLongs);
+        longsOut.flush();
+        mLongsEncoded = new ByteArrayInputStream(longs.toByteArray());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void writeInt() throws IOException {
+        for (int value : mInts) {
+            mOut.writeInt(value);
+        }
+        mOut.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void writeLong() throws IOException {
+        for (long value : mLongs) {
+            mOut.writeLong(value);
+        }
+        mOut.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void writeIntArray() throws IOException {
+        mOut.writeIntArray(mInts);
+        mOut.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int readInt() throws IOException {
+        mIntsEncoded.reset();
+        final FastDataInput in = FastDataInput.obtain(mIntsEncoded);
+        int total = 0;
+        for (int i = 0; i < COUNT; i++) {
+            total += in.readInt();
+        }
+        in.release();
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long readLong() throws IOException {
+        mLongsEncoded.reset();
+        final FastDataInput in = FastDataInput.obtain(mLongsEncoded);
+        long total = 0;
+        for (int i = 0; i < COUNT; i++) {
+            total += in.readLong();
+        }
+        in.release();
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int[] readIntArray() throws IOException {
+        mIntsEncoded.reset();
+        final FastDataInput in = FastDataInput.obtain(mIntsEncoded);
+        in.readIntArray(mIntsScratch);
+        in.release();
+        return mIntsScratch;
+    }
+}
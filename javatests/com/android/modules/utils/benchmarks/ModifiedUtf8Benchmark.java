@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils.benchmarks;
+
+import com.android.modules.utils.ModifiedUtf8;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.UTFDataFormatException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ModifiedUtf8} against the kind of short attribute values
+ * found in a typical {@code packages.xml}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModifiedUtf8Benchmark {
+    @Param({"ascii", "mixed"})
+    public String corpus;
+
+    private String[] mValues;
+    private byte[][] mEncoded;
+    private byte[] mBuffer;
+    private char[] mChars;
+
+    @Setup
+    public void setup() throws UTFDataFormatException {
+        mValues = Corpus.attributeValues(corpus.equals("mixed"));
+        mEncoded = new byte[mValues.length][];
+        for (int i = 0; i < mValues.length; i++) {
+            final String value = mValues[i];
+            mEncoded[i] = new byte[(int) ModifiedUtf8.countBytes(value, false)];
+            ModifiedUtf8.encode(mEncoded[i], 0, value);
+        }
+        mBuffer = new byte[65_536];
+        mChars = new char[65_536];
+    }
+
+    /**
+     * Baseline which scans each value twice, as {@code writeUTF()} once did,
+     * using the original encoder without any ASCII fast path.
+     */
+    @Benchmark
+    public int countThenEncode() {
+        int total = 0;
+        for (String value : mValues) {
+            final int len = (int) legacyCountBytes(value);
+            legacyEncode(mBuffer, 0, value);
+            total += len;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int encodeAndCount() {
+        int total = 0;
+        for (String value : mValues) {
+            total += ModifiedUtf8.encodeAndCount(mBuffer, 0, value);
+        }
+        return total;
+    }
+
+    /**
+     * Baseline which decodes through the original algorithm without any
+     * ASCII fast path.
+     */
+    @Benchmark
+    public void legacyDecode(Blackhole bh) throws UTFDataFormatException {
+        for (byte[] encoded : mEncoded) {
+            bh.consume(legacyDecode(encoded, mChars, 0, encoded.length));
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh) throws UTFDataFormatException {
+        for (byte[] encoded : mEncoded) {
+            bh.consume(ModifiedUtf8.decode(encoded, mChars, 0, encoded.length));
+        }
+    }
+
+    // NOTE: Copies of the ModifiedUtf8 algorithms from before the ASCII fast
+    // paths were added, kept here so the benchmark can measure against them
+
+    private static long legacyCountBytes(String s) {
+        long result = 0;
+        final int length = s.length();
+        for (int i = 0; i < length; ++i) {
+            char ch = s.charAt(i);
+            if (ch != 0 && ch <= 127) { // U+0000 uses two bytes.
+                ++result;
+            } else if (ch <= 2047) {
+                result += 2;
+            } else {
+                result += 3;
+            }
+        }
+        return result;
+    }
+
+    private static void legacyEncode(byte[] dst, int offset, String s) {
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char ch = s.charAt(i);
+            if (ch != 0 && ch <= 127) { // U+0000 uses two bytes.
+                dst[offset++] = (byte) ch;
+            } else if (ch <= 2047) {
+                dst[offset++] = (byte) (0xc0 | (0x1f & (ch >> 6)));
+                dst[offset++] = (byte) (0x80 | (0x3f & ch));
+            } else {
+                dst[offset++] = (byte) (0xe0 | (0x0f & (ch >> 12)));
+                dst[offset++] = (byte) (0x80 | (0x3f & (ch >> 6)));
+                dst[offset++] = (byte) (0x80 | (0x3f & ch));
+            }
+        }
+    }
+
+    private static String legacyDecode(byte[] in, char[] out, int offset, int utfSize)
+            throws UTFDataFormatException {
+        int count = 0, s = 0, a;
+        while (count < utfSize) {
+            if ((out[s] = (char) in[offset + count++]) < '\u0080') {
+                s++;
+            } else if (((a = out[s]) & 0xe0) == 0xc0) {
+                if (count >= utfSize) {
+                    throw new UTFDataFormatException("bad second byte at " + count);
+                }
+                int b = in[offset + count++];
+                if ((b & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("bad second byte at " + (count - 1));
+                }
+                out[s++] = (char) (((a & 0x1F) << 6) | (b & 0x3F));
+            } else if ((a & 0xf0) == 0xe0) {
+                if (count + 1 >= utfSize) {
+                    throw new UTFDataFormatException("bad third byte at " + (count + 1));
+                }
+                int b = in[offset + count++];
+                int c = in[offset + count++];
+                if (((b & 0xC0) != 0x80) || ((c & 0xC0) != 0x80)) {
+                    throw new UTFDataFormatException("bad second or third byte at " + (count - 2));
+                }
+                out[s++] = (char) (((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F));
+            } else {
+                throw new UTFDataFormatException("bad byte at " + (count - 1));
+            }
+        }
+        return new String(out, 0, s);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils.benchmarks;
+
+import com.android.internal.util.FastXmlSerializer;
+import com.android.modules.utils.BinaryXmlPullParser;
+import com.android.modules.utils.BinaryXmlSerializer;
+import com.android.modules.utils.BinaryXmlTranscoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting binary XML documents of each {@link Corpus} shape into
+ * text XML, comparing {@link BinaryXmlTranscoder} against copying events from
+ * {@link BinaryXmlPullParser} to {@link FastXmlSerializer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranscodeBenchmark {
+    @Param({Corpus.WIDE, Corpus.DEEP, Corpus.INTERNED, Corpus.TEXT})
+    public String shape;
+
+    private byte[] mEncoded;
+    private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+    private final BinaryXmlTranscoder mTranscoder = new BinaryXmlTranscoder();
+
+    @Setup
+    public void setup() throws IOException {
+        final BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(mOut, "UTF-8");
+        Corpus.writeDocument(shape, out);
+        mEncoded = mOut.toByteArray();
+    }
+
+    /**
+     * Baseline which drives both sides through the generic interfaces.
+     */
+    @Benchmark
+    public int copyEvents() throws IOException, XmlPullParserException {
+        mOut.reset();
+        final BinaryXmlPullParser in = new BinaryXmlPullParser();
+        in.setInput(new ByteArrayInputStream(mEncoded), "UTF-8");
+        final FastXmlSerializer out = new FastXmlSerializer();
+        out.setOutput(mOut, "UTF-8");
+        out.startDocument(null, true);
+        int type;
+        while ((type = in.next()) != XmlPullParser.END_DOCUMENT) {
+            switch (type) {
+                case XmlPullParser.START_TAG:
+                    out.startTag(null, in.getName());
+                    for (int i = 0; i < in.getAttributeCount(); i++) {
+                        out.attribute(null, in.getAttributeName(i), in.getAttributeValue(i));
+                    }
+                    break;
+                case XmlPullParser.END_TAG:
+                    out.endTag(null, in.getName());
+                    break;
+                case XmlPullParser.TEXT:
+                    out.text(in.getText());
+                    break;
+            }
+        }
+        out.endDocument();
+        return mOut.size();
+    }
+
+    @Benchmark
+    public int transcode() throws IOException, XmlPullParserException {
+        mOut.reset();
+        mTranscoder.binaryToText(new ByteArrayInputStream(mEncoded), mOut);
+        return mOut.size();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.modules.utils.benchmarks;
+
+import com.android.internal.util.FastXmlSerializer;
+import com.android.modules.utils.BinaryXmlPullParser;
+import com.android.modules.utils.BinaryXmlSerializer;
+
+import org.kxml2.io.KXmlParser;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing and reading complete documents of each {@link Corpus}
+ * shape, comparing binary XML against text XML written by
+ * {@link FastXmlSerializer} and read by {@link KXmlParser}.
+ * <p>
+ * Each benchmark also reports the number of document bytes processed as a
+ * secondary {@code bytes} result, and the allocation per document is
+ * reported as {@code gc.alloc.rate.norm} when run with {@code -prof gc}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlBenchmark {
+    @Param({Corpus.WIDE, Corpus.DEEP, Corpus.INTERNED, Corpus.TEXT})
+    public String shape;
+
+    /**
+     * Either binary XML using protocol version 0 or 1, or text XML.
+     */
+    @Param({"abx", "abx1", "text"})
+    public String format;
+
+    /**
+     * Counts document bytes processed, which JMH reports as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    private byte[] mEncoded;
+    private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+    @Setup
+    public void setup() throws IOException {
+        final XmlSerializer out = newSerializer();
+        out.setOutput(mOut, "UTF-8");
+        Corpus.writeDocument(shape, out);
+        mEncoded = mOut.toByteArray();
+    }
+
+    private XmlSerializer newSerializer() {
+        switch (format) {
+            case "abx":
+                return new BinaryXmlSerializer();
+            case "abx1": {
+                final BinaryXmlSerializer out = new BinaryXmlSerializer();
+                out.setProtocolVersion(1);
+                return out;
+            }
+            case "text":
+                return new FastXmlSerializer();
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+
+    private XmlPullParser newParser() {
+        return format.equals("text") ? new KXmlParser() : new BinaryXmlPullParser();
+    }
+
+    @Benchmark
+    public int write(Bytes bytes) throws IOException {
+        mOut.reset();
+        final XmlSerializer out = newSerializer();
+        out.setOutput(mOut, "UTF-8");
+        Corpus.writeDocument(shape, out);
+        bytes.bytes += mOut.size();
+        return mOut.size();
+    }
+
+    @Benchmark
+    public void read(Bytes bytes, Blackhole bh) throws IOException, XmlPullParserException {
+        final XmlPullParser in = newParser();
+        in.setInput(new ByteArrayInputStream(mEncoded), "UTF-8");
+        Corpus.readDocument(in, bh);
+        bytes.bytes += mEncoded.length;
+    }
+}
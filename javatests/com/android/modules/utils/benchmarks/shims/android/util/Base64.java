@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+/**
+ * Host-side stand-in for the subset of the platform {@code Base64} used by
+ * the binary XML stack, backed by {@link java.util.Base64}.
+ */
+public final class Base64 {
+    public static final int DEFAULT = 0;
+    public static final int NO_WRAP = 2;
+
+    private Base64() {
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        if ((flags & NO_WRAP) != 0) {
+            return java.util.Base64.getEncoder().encodeToString(input);
+        }
+        // Like the platform, DEFAULT wraps lines at 76 characters with LF
+        // only, and terminates the final line
+        final String encoded = java.util.Base64.getMimeEncoder(76, new byte[] { '\n' })
+                .encodeToString(input);
+        return encoded.isEmpty() ? encoded : encoded + "\n";
+    }
+
+    public static byte[] decode(String str, int flags) {
+        // Line breaks are the only characters we tolerate beyond the alphabet
+        return java.util.Base64.getDecoder().decode(str.replace("\r", "").replace("\n", ""));
+    }
+}